@@ -0,0 +1,261 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fede.workspace.eclipse.composition.copy.composer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reader of the central directory of a ZIP or JAR archive written by
+ * {@link ArchiveWriter}. It gives access to the compressed bytes of each
+ * entry so that an unchanged entry is copied into a new archive without
+ * being decompressed and compressed again.
+ * 
+ * ZIP64 archives are not supported.
+ * 
+ * @author Thomas
+ * 
+ */
+public class ArchiveReader {
+
+	static final int			LOCAL_HEADER_SIGNATURE		= 0x04034b50;
+	static final int			CENTRAL_HEADER_SIGNATURE	= 0x02014b50;
+	static final int			END_SIGNATURE				= 0x06054b50;
+	static final int			LOCAL_HEADER_SIZE			= 30;
+	static final int			CENTRAL_HEADER_SIZE			= 46;
+	static final int			END_SIZE					= 22;
+	static final int			UTF8_FLAG					= 0x800;
+
+	private static final int	MAX_COMMENT_SIZE			= 0xffff;
+
+	/**
+	 * An entry of the central directory.
+	 */
+	public static class Entry {
+
+		private final String	_name;
+
+		private final byte[]	_rawName;
+
+		private final int		_flags;
+
+		private final int		_method;
+
+		private final long		_dosTime;
+
+		private final long		_crc;
+
+		private final long		_compressedSize;
+
+		private final long		_size;
+
+		private final long		_offset;
+
+		Entry(String name, byte[] rawName, int flags, int method, long dosTime, long crc, long compressedSize,
+				long size, long offset) {
+			this._name = name;
+			this._rawName = rawName;
+			this._flags = flags;
+			this._method = method;
+			this._dosTime = dosTime;
+			this._crc = crc;
+			this._compressedSize = compressedSize;
+			this._size = size;
+			this._offset = offset;
+		}
+
+		/**
+		 * Return the entry name (folder names end with '/').
+		 * 
+		 * @return the entry name.
+		 */
+		public String getName() {
+			return _name;
+		}
+
+		byte[] getRawName() {
+			return _rawName;
+		}
+
+		int getFlags() {
+			return _flags;
+		}
+
+		int getMethod() {
+			return _method;
+		}
+
+		long getDosTime() {
+			return _dosTime;
+		}
+
+		long getCrc() {
+			return _crc;
+		}
+
+		long getCompressedSize() {
+			return _compressedSize;
+		}
+
+		long getSize() {
+			return _size;
+		}
+
+		long getOffset() {
+			return _offset;
+		}
+	}
+
+	private final RandomAccessFile	_file;
+
+	private final List<Entry>		_entries;
+
+	/**
+	 * Open the specified archive and read its central directory.
+	 * 
+	 * @param file
+	 *            the archive
+	 * @throws IOException
+	 *             if the archive cannot be read or is not a supported archive
+	 */
+	public ArchiveReader(File file) throws IOException {
+		_file = new RandomAccessFile(file, "r");
+		try {
+			_entries = readCentralDirectory();
+		} catch (IOException e) {
+			_file.close();
+			throw e;
+		}
+	}
+
+	private List<Entry> readCentralDirectory() throws IOException {
+		// the end record is followed by a comment of at most 64KB
+		long length = _file.length();
+		int tailSize = (int) Math.min(length, END_SIZE + MAX_COMMENT_SIZE);
+		ByteBuffer tail = read(length - tailSize, tailSize);
+		int end = -1;
+		for (int i = tailSize - END_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == END_SIGNATURE) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0) {
+			throw new IOException("Not a ZIP archive");
+		}
+
+		int count = tail.getShort(end + 10) & 0xffff;
+		long centralSize = tail.getInt(end + 12) & 0xffffffffL;
+		long centralOffset = tail.getInt(end + 16) & 0xffffffffL;
+		if ((count == 0xffff) || (centralOffset == 0xffffffffL)) {
+			throw new IOException("ZIP64 archives are not supported");
+		}
+
+		ByteBuffer central = read(centralOffset, (int) centralSize);
+		List<Entry> entries = new ArrayList<Entry>(count);
+		int pos = 0;
+		for (int i = 0; i < count; i++) {
+			if (central.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+				throw new IOException("Bad central directory entry");
+			}
+			int flags = central.getShort(pos + 8) & 0xffff;
+			int method = central.getShort(pos + 10) & 0xffff;
+			long dosTime = central.getInt(pos + 12) & 0xffffffffL;
+			long crc = central.getInt(pos + 16) & 0xffffffffL;
+			long compressedSize = central.getInt(pos + 20) & 0xffffffffL;
+			long size = central.getInt(pos + 24) & 0xffffffffL;
+			int nameLength = central.getShort(pos + 28) & 0xffff;
+			int extraLength = central.getShort(pos + 30) & 0xffff;
+			int commentLength = central.getShort(pos + 32) & 0xffff;
+			long offset = central.getInt(pos + 42) & 0xffffffffL;
+
+			byte[] rawName = new byte[nameLength];
+			central.position(pos + CENTRAL_HEADER_SIZE);
+			central.get(rawName);
+			String name = decodeName(rawName, flags);
+
+			entries.add(new Entry(name, rawName, flags, method, dosTime, crc, compressedSize, size, offset));
+			pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+		}
+		return entries;
+	}
+
+	static String decodeName(byte[] rawName, int flags) throws UnsupportedEncodingException {
+		return new String(rawName, ((flags & UTF8_FLAG) != 0) ? "UTF-8" : "ISO-8859-1");
+	}
+
+	private ByteBuffer read(long position, int size) throws IOException {
+		byte[] bytes = new byte[size];
+		_file.seek(position);
+		_file.readFully(bytes);
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Return the entries of the archive in central directory order.
+	 * 
+	 * @return the entries of the archive.
+	 */
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(_entries);
+	}
+
+	/**
+	 * Return the position of the compressed bytes of the specified entry.
+	 * 
+	 * @param entry
+	 *            an entry of this archive
+	 * @return the position of the compressed bytes of the entry.
+	 * @throws IOException
+	 *             if the local header of the entry cannot be read
+	 */
+	long getDataOffset(Entry entry) throws IOException {
+		ByteBuffer header = read(entry.getOffset(), LOCAL_HEADER_SIZE);
+		if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+			throw new IOException("Bad local header for " + entry.getName());
+		}
+		int nameLength = header.getShort(26) & 0xffff;
+		int extraLength = header.getShort(28) & 0xffff;
+		return entry.getOffset() + LOCAL_HEADER_SIZE + nameLength + extraLength;
+	}
+
+	FileChannel getChannel() {
+		return _file.getChannel();
+	}
+
+	/**
+	 * Close the archive.
+	 * 
+	 * @throws IOException
+	 *             if the archive cannot be closed
+	 */
+	public void close() throws IOException {
+		_file.close();
+	}
+}
@@ -0,0 +1,392 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fede.workspace.eclipse.composition.copy.composer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Streaming writer of a ZIP or JAR archive used by the archive mode of
+ * {@link CopyIntoFolderComposer}. The archive is written into a temporary
+ * file which replaces the archive when the writer is closed, so the archive
+ * is never left half written.
+ * 
+ * The entries of a previous archive can be copied with their compressed
+ * bytes (see {@link #copyEntry(ArchiveReader, ArchiveReader.Entry)}) : only
+ * the added and updated files are compressed.
+ * 
+ * @author Thomas
+ * 
+ */
+public class ArchiveWriter {
+
+	/**
+	 * Compression level of the entries which are stored without compression.
+	 */
+	public static final int			STORED					= 0;
+
+	private static final String		BACKUP_FILE_EXTENSION	= ".bak";
+	private static final String		TMP_FILE_EXTENSION		= ".tmp";
+
+	private static final int		VERSION_STORED			= 10;
+	private static final int		VERSION_DEFLATED		= 20;
+	private static final int		DATA_DESCRIPTOR_FLAG	= 0x8;
+	private static final int		FOLDER_ATTRIBUTE		= 0x10;
+	private static final int		MAX_ENTRIES				= 0xffff;
+	private static final long		MAX_SIZE				= 0xffffffffL;
+
+	/**
+	 * An entry written in the archive, kept for the central directory.
+	 */
+	private static class CentralEntry {
+		byte[]	_rawName;
+		int		_flags;
+		int		_method;
+		long	_dosTime;
+		long	_crc;
+		long	_compressedSize;
+		long	_size;
+		long	_offset;
+		boolean	_folder;
+	}
+
+	private final IFile				_archive;
+
+	private final File				_archiveFile;
+
+	private final File				_tmpFile;
+
+	private final RandomAccessFile	_out;
+
+	private final List<CentralEntry>	_entries			= new ArrayList<CentralEntry>();
+
+	private final byte[]			_buffer				= new byte[8192];
+
+	private final byte[]			_deflated			= new byte[8192];
+
+	private final ByteBuffer		_header				= ByteBuffer.allocate(ArchiveReader.CENTRAL_HEADER_SIZE)
+																.order(ByteOrder.LITTLE_ENDIAN);
+
+	private final Deflater			_deflater			= new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+
+	private final Calendar			_calendar			= Calendar.getInstance();
+
+	/**
+	 * Start writing the specified archive.
+	 * 
+	 * @param archive
+	 *            the archive to write
+	 * @throws IOException
+	 *             if the temporary file cannot be created
+	 */
+	public ArchiveWriter(IFile archive) throws IOException {
+		this._archive = archive;
+		this._archiveFile = FileUtil.getFile(archive);
+		this._tmpFile = new File(_archiveFile.getPath() + TMP_FILE_EXTENSION);
+		this._tmpFile.delete();
+		this._out = new RandomAccessFile(_tmpFile, "rw");
+	}
+
+	/**
+	 * Add a folder entry.
+	 * 
+	 * @param path
+	 *            the folder path in the archive
+	 * @throws IOException
+	 *             if the entry cannot be written
+	 */
+	public void addFolder(IPath path) throws IOException {
+		CentralEntry entry = newEntry(path.toPortableString() + "/", ZipEntry.STORED, System.currentTimeMillis());
+		entry._folder = true;
+		writeLocalHeader(entry);
+	}
+
+	/**
+	 * Add a file entry with the content of the specified file.
+	 * 
+	 * @param path
+	 *            the file path in the archive
+	 * @param file
+	 *            the file to add
+	 * @param level
+	 *            the deflate level (see {@link Deflater}) or {@link #STORED}
+	 * @throws IOException
+	 *             if the file cannot be read or the entry cannot be written
+	 */
+	public void addFile(IPath path, IFile file, int level) throws IOException {
+		File src = FileUtil.getFile(file);
+		CentralEntry entry = newEntry(path.toPortableString(), (level == STORED) ? ZipEntry.STORED
+				: ZipEntry.DEFLATED, src.lastModified());
+		writeLocalHeader(entry);
+
+		// the sizes and the crc are written in the local header once the
+		// content is written
+		CRC32 crc = new CRC32();
+		InputStream in = new FileInputStream(src);
+		try {
+			if (level == STORED) {
+				int read;
+				while ((read = in.read(_buffer)) != -1) {
+					crc.update(_buffer, 0, read);
+					_out.write(_buffer, 0, read);
+					entry._size += read;
+				}
+				entry._compressedSize = entry._size;
+			} else {
+				_deflater.reset();
+				_deflater.setLevel(level);
+				int read;
+				while ((read = in.read(_buffer)) != -1) {
+					crc.update(_buffer, 0, read);
+					entry._size += read;
+					_deflater.setInput(_buffer, 0, read);
+					while (!_deflater.needsInput()) {
+						entry._compressedSize += deflate();
+					}
+				}
+				_deflater.finish();
+				while (!_deflater.finished()) {
+					entry._compressedSize += deflate();
+				}
+			}
+		} finally {
+			in.close();
+		}
+		entry._crc = crc.getValue();
+		checkSize(entry._compressedSize);
+		checkSize(entry._size);
+
+		long end = _out.getFilePointer();
+		_out.seek(entry._offset + 14);
+		_header.clear();
+		_header.putInt((int) entry._crc).putInt((int) entry._compressedSize).putInt((int) entry._size);
+		_out.write(_header.array(), 0, _header.position());
+		_out.seek(end);
+	}
+
+	private int deflate() throws IOException {
+		int length = _deflater.deflate(_deflated, 0, _deflated.length);
+		_out.write(_deflated, 0, length);
+		return length;
+	}
+
+	/**
+	 * Copy an entry of a previous archive without decompressing it.
+	 * 
+	 * @param reader
+	 *            the previous archive
+	 * @param readerEntry
+	 *            the entry to copy
+	 * @throws IOException
+	 *             if the entry cannot be copied
+	 */
+	public void copyEntry(ArchiveReader reader, ArchiveReader.Entry readerEntry) throws IOException {
+		CentralEntry entry = new CentralEntry();
+		entry._rawName = readerEntry.getRawName();
+		// the sizes are known, so no data descriptor is written
+		entry._flags = readerEntry.getFlags() & ~DATA_DESCRIPTOR_FLAG;
+		entry._method = readerEntry.getMethod();
+		entry._dosTime = readerEntry.getDosTime();
+		entry._crc = readerEntry.getCrc();
+		entry._compressedSize = readerEntry.getCompressedSize();
+		entry._size = readerEntry.getSize();
+		entry._folder = readerEntry.getName().endsWith("/");
+		checkSize(entry._compressedSize);
+		checkSize(entry._size);
+		writeLocalHeader(entry);
+
+		FileChannel in = reader.getChannel();
+		FileChannel out = _out.getChannel();
+		long position = reader.getDataOffset(readerEntry);
+		long remaining = entry._compressedSize;
+		while (remaining > 0) {
+			long transferred = in.transferTo(position, remaining, out);
+			if (transferred <= 0) {
+				throw new IOException("Cannot copy " + readerEntry.getName());
+			}
+			position += transferred;
+			remaining -= transferred;
+		}
+	}
+
+	private CentralEntry newEntry(String name, int method, long time) throws IOException {
+		CentralEntry entry = new CentralEntry();
+		entry._rawName = name.getBytes("UTF-8");
+		entry._flags = ArchiveReader.UTF8_FLAG;
+		entry._method = method;
+		entry._dosTime = toDosTime(time);
+		return entry;
+	}
+
+	private void writeLocalHeader(CentralEntry entry) throws IOException {
+		if (_entries.size() == MAX_ENTRIES) {
+			throw new IOException("Too many entries in " + _archiveFile);
+		}
+		entry._offset = _out.getFilePointer();
+		checkSize(entry._offset);
+		_entries.add(entry);
+
+		_header.clear();
+		_header.putInt(ArchiveReader.LOCAL_HEADER_SIGNATURE);
+		_header.putShort((short) getVersion(entry));
+		_header.putShort((short) entry._flags);
+		_header.putShort((short) entry._method);
+		_header.putInt((int) entry._dosTime);
+		_header.putInt((int) entry._crc);
+		_header.putInt((int) entry._compressedSize);
+		_header.putInt((int) entry._size);
+		_header.putShort((short) entry._rawName.length);
+		_header.putShort((short) 0);
+		_out.write(_header.array(), 0, _header.position());
+		_out.write(entry._rawName);
+	}
+
+	private void writeCentralDirectory() throws IOException {
+		long centralOffset = _out.getFilePointer();
+		checkSize(centralOffset);
+		for (CentralEntry entry : _entries) {
+			_header.clear();
+			_header.putInt(ArchiveReader.CENTRAL_HEADER_SIGNATURE);
+			_header.putShort((short) VERSION_DEFLATED);
+			_header.putShort((short) getVersion(entry));
+			_header.putShort((short) entry._flags);
+			_header.putShort((short) entry._method);
+			_header.putInt((int) entry._dosTime);
+			_header.putInt((int) entry._crc);
+			_header.putInt((int) entry._compressedSize);
+			_header.putInt((int) entry._size);
+			_header.putShort((short) entry._rawName.length);
+			_header.putShort((short) 0);
+			_header.putShort((short) 0);
+			_header.putShort((short) 0);
+			_header.putShort((short) 0);
+			_header.putInt(entry._folder ? FOLDER_ATTRIBUTE : 0);
+			_header.putInt((int) entry._offset);
+			_out.write(_header.array(), 0, _header.position());
+			_out.write(entry._rawName);
+		}
+		long centralSize = _out.getFilePointer() - centralOffset;
+
+		_header.clear();
+		_header.putInt(ArchiveReader.END_SIGNATURE);
+		_header.putShort((short) 0);
+		_header.putShort((short) 0);
+		_header.putShort((short) _entries.size());
+		_header.putShort((short) _entries.size());
+		_header.putInt((int) centralSize);
+		_header.putInt((int) centralOffset);
+		_header.putShort((short) 0);
+		_out.write(_header.array(), 0, _header.position());
+	}
+
+	private static int getVersion(CentralEntry entry) {
+		return (entry._method == ZipEntry.STORED) ? VERSION_STORED : VERSION_DEFLATED;
+	}
+
+	private void checkSize(long size) throws IOException {
+		if (size > MAX_SIZE) {
+			throw new IOException(_archiveFile + " is too large");
+		}
+	}
+
+	private long toDosTime(long time) {
+		_calendar.setTimeInMillis(time);
+		int year = _calendar.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return ((year - 1980) << 25) | ((_calendar.get(Calendar.MONTH) + 1) << 21)
+				| (_calendar.get(Calendar.DAY_OF_MONTH) << 16) | (_calendar.get(Calendar.HOUR_OF_DAY) << 11)
+				| (_calendar.get(Calendar.MINUTE) << 5) | (_calendar.get(Calendar.SECOND) >> 1);
+	}
+
+	/**
+	 * Finish the archive, replace the previous one and refresh it. The reader
+	 * of the previous archive, if any, must be closed before.
+	 * 
+	 * @param monitor
+	 *            a progress monitor
+	 * @throws IOException
+	 *             if the archive cannot be finished or replaced
+	 * @throws CoreException
+	 *             if the archive cannot be refreshed
+	 */
+	public void close(IProgressMonitor monitor) throws IOException, CoreException {
+		try {
+			writeCentralDirectory();
+		} finally {
+			_out.close();
+			_deflater.end();
+		}
+		// the previous archive is renamed aside and restored if the new one
+		// cannot take its place
+		File backupFile = new File(_archiveFile.getPath() + BACKUP_FILE_EXTENSION);
+		backupFile.delete();
+		boolean backup = _archiveFile.exists();
+		if (backup && !_archiveFile.renameTo(backupFile)) {
+			_tmpFile.delete();
+			throw new IOException("Cannot replace " + _archiveFile);
+		}
+		if (!_tmpFile.renameTo(_archiveFile)) {
+			if (backup) {
+				backupFile.renameTo(_archiveFile);
+			}
+			_tmpFile.delete();
+			throw new IOException("Cannot rename " + _tmpFile + " to " + _archiveFile);
+		}
+		if (backup) {
+			backupFile.delete();
+		}
+		_archive.refreshLocal(IResource.DEPTH_ZERO, monitor);
+	}
+
+	/**
+	 * Stop writing the archive : the previous archive is kept.
+	 */
+	public void abort() {
+		try {
+			_out.close();
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		_deflater.end();
+		_tmpFile.delete();
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fede.workspace.eclipse.composition.copy.composer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jdt.core.IClasspathEntry;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaModelException;
+
+/**
+ * Updates the raw classpath of the composite projects only when it changes.
+ * Setting the raw classpath makes JDT resolve the classpath again and may
+ * rebuild the dependent projects, so an entry which is already present is not
+ * set again.
+ * 
+ * The updates done between {@link #beginBatch(IJavaProject)} and
+ * {@link #endBatch(IJavaProject, IProgressMonitor)} are applied with one
+ * call to {@link IJavaProject#setRawClasspath(IClasspathEntry[], IProgressMonitor)}.
+ * 
+ * @author Thomas
+ * 
+ */
+public class ClasspathUpdater {
+
+	/**
+	 * Pending updates of the classpath of a project.
+	 */
+	private static class Batch {
+
+		private int									_depth;
+
+		/**
+		 * Entries to set (or to remove when the value is null) by path.
+		 */
+		private final Map<IPath, IClasspathEntry>	_entries	= new LinkedHashMap<IPath, IClasspathEntry>();
+	}
+
+	private static final Map<IJavaProject, Batch>	_batches	= new HashMap<IJavaProject, Batch>();
+
+	private ClasspathUpdater() {
+		// static methods only
+	}
+
+	/**
+	 * Start a batch of updates of the classpath of the specified project.
+	 * Batches can be nested : the updates are applied at the end of the
+	 * outermost batch.
+	 * 
+	 * @param javaProject
+	 *            a java project
+	 */
+	public static synchronized void beginBatch(IJavaProject javaProject) {
+		Batch batch = _batches.get(javaProject);
+		if (batch == null) {
+			batch = new Batch();
+			_batches.put(javaProject, batch);
+		}
+		batch._depth++;
+	}
+
+	/**
+	 * Finish a batch of updates of the classpath of the specified project and
+	 * apply the updates if it is the outermost batch.
+	 * 
+	 * @param javaProject
+	 *            a java project
+	 * @param monitor
+	 *            a progress monitor
+	 * @throws JavaModelException
+	 *             if the classpath cannot be set
+	 */
+	public static void endBatch(IJavaProject javaProject, IProgressMonitor monitor) throws JavaModelException {
+		Batch batch;
+		synchronized (ClasspathUpdater.class) {
+			batch = _batches.get(javaProject);
+			if ((batch == null) || (--batch._depth > 0)) {
+				return;
+			}
+			_batches.remove(javaProject);
+		}
+		apply(javaProject, batch._entries, monitor);
+	}
+
+	/**
+	 * Add the specified entry to the classpath of the project or replace the
+	 * entry which has the same path. Nothing is done if the entry is
+	 * already present.
+	 * 
+	 * @param javaProject
+	 *            a java project
+	 * @param entry
+	 *            the wanted entry
+	 * @param monitor
+	 *            a progress monitor
+	 * @throws JavaModelException
+	 *             if the classpath cannot be set
+	 */
+	public static void setEntry(IJavaProject javaProject, IClasspathEntry entry, IProgressMonitor monitor)
+			throws JavaModelException {
+		update(javaProject, entry.getPath(), entry, monitor);
+	}
+
+	/**
+	 * Remove the entry which has the specified path from the classpath of the
+	 * project. Nothing is done if there is no such entry.
+	 * 
+	 * @param javaProject
+	 *            a java project
+	 * @param path
+	 *            the path of the entry to remove
+	 * @param monitor
+	 *            a progress monitor
+	 * @throws JavaModelException
+	 *             if the classpath cannot be set
+	 */
+	public static void removeEntry(IJavaProject javaProject, IPath path, IProgressMonitor monitor)
+			throws JavaModelException {
+		update(javaProject, path, null, monitor);
+	}
+
+	private static void update(IJavaProject javaProject, IPath path, IClasspathEntry entry, IProgressMonitor monitor)
+			throws JavaModelException {
+		synchronized (ClasspathUpdater.class) {
+			Batch batch = _batches.get(javaProject);
+			if (batch != null) {
+				batch._entries.put(path, entry);
+				return;
+			}
+		}
+		Map<IPath, IClasspathEntry> entries = new HashMap<IPath, IClasspathEntry>();
+		entries.put(path, entry);
+		apply(javaProject, entries, monitor);
+	}
+
+	private static void apply(IJavaProject javaProject, Map<IPath, IClasspathEntry> entries,
+			IProgressMonitor monitor) throws JavaModelException {
+		if (entries.isEmpty()) {
+			return;
+		}
+		IClasspathEntry[] rawClasspath = javaProject.getRawClasspath();
+		List<IClasspathEntry> classpath = new ArrayList<IClasspathEntry>(rawClasspath.length + entries.size());
+		Map<IPath, IClasspathEntry> added = new LinkedHashMap<IPath, IClasspathEntry>(entries);
+		boolean changed = false;
+		for (IClasspathEntry current : rawClasspath) {
+			if (!added.containsKey(current.getPath())) {
+				classpath.add(current);
+				continue;
+			}
+			IClasspathEntry wanted = added.remove(current.getPath());
+			if (wanted == null) {
+				changed = true;
+			} else {
+				classpath.add(wanted);
+				changed |= !wanted.equals(current);
+			}
+		}
+		for (IClasspathEntry wanted : added.values()) {
+			if (wanted != null) {
+				classpath.add(wanted);
+				changed = true;
+			}
+		}
+
+		if (changed) {
+			javaProject.setRawClasspath(classpath.toArray(new IClasspathEntry[classpath.size()]), monitor);
+		}
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fede.workspace.eclipse.composition.copy.composer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.core.runtime.IPath;
+
+/**
+ * Actions planned by a dry-run composition (see
+ * {@link CopyIntoFolderComposer#dryRun(fr.imag.adele.cadse.core.build.IBuildingContext)}
+ * ). Nothing is written in the target folders nor in the repositories when a
+ * plan is computed.
+ * 
+ * @author Thomas
+ * 
+ */
+public class ComposePlan {
+
+	public static final String	ADD				= "add";
+	public static final String	UPDATE			= "update";
+	public static final String	REMOVE			= "remove";
+	public static final String	CREATE_FOLDER	= "create-folder";
+	public static final String	GC				= "gc";
+
+	/**
+	 * One planned action on a target resource.
+	 */
+	public static class Action {
+
+		private final String	_kind;
+
+		private final String	_exporterType;
+
+		private final String	_targetFolder;
+
+		private final IPath		_path;
+
+		private final long		_bytes;
+
+		public Action(String kind, String exporterType, String targetFolder, IPath path, long bytes) {
+			this._kind = kind;
+			this._exporterType = exporterType;
+			this._targetFolder = targetFolder;
+			this._path = path;
+			this._bytes = bytes;
+		}
+
+		/**
+		 * Return the action kind (one of the constants of ComposePlan).
+		 * 
+		 * @return the action kind.
+		 */
+		public String getKind() {
+			return _kind;
+		}
+
+		public String getExporterType() {
+			return _exporterType;
+		}
+
+		public String getTargetFolder() {
+			return _targetFolder;
+		}
+
+		/**
+		 * Return the path relative to the target folder of the resource.
+		 * 
+		 * @return the path relative to the target folder of the resource.
+		 */
+		public IPath getPath() {
+			return _path;
+		}
+
+		/**
+		 * Return the number of bytes to copy (add and update) or to delete
+		 * (remove and gc).
+		 * 
+		 * @return the number of bytes concerned by this action.
+		 */
+		public long getBytes() {
+			return _bytes;
+		}
+
+		@Override
+		public String toString() {
+			return _kind + "\t" + _exporterType + "\t" + _targetFolder + "\t"
+					+ (_path == null ? "" : _path.toPortableString()) + "\t" + _bytes;
+		}
+	}
+
+	private final List<Action>	_actions	= new ArrayList<Action>();
+
+	private boolean				_targetFolderChanged;
+
+	/**
+	 * Add an action to this plan.
+	 * 
+	 * @param action
+	 *            the planned action
+	 */
+	public void add(Action action) {
+		_actions.add(action);
+	}
+
+	/**
+	 * Return all the planned actions in execution order.
+	 * 
+	 * @return all the planned actions in execution order.
+	 */
+	public List<Action> getActions() {
+		return Collections.unmodifiableList(_actions);
+	}
+
+	/**
+	 * Return the number of planned actions of the specified kind.
+	 * 
+	 * @param kind
+	 *            an action kind
+	 * @return the number of planned actions of the specified kind.
+	 */
+	public int getCount(String kind) {
+		int count = 0;
+		for (Action action : _actions) {
+			if (action.getKind().equals(kind)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Return the number of bytes concerned by the planned actions of the
+	 * specified kind.
+	 * 
+	 * @param kind
+	 *            an action kind
+	 * @return the number of bytes concerned by the actions of this kind.
+	 */
+	public long getBytes(String kind) {
+		long bytes = 0;
+		for (Action action : _actions) {
+			if (action.getKind().equals(kind)) {
+				bytes += action.getBytes();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Return true if the composition would move the content of the last target
+	 * folder to a new target folder.
+	 * 
+	 * @return true if the target folder has changed from the last build.
+	 */
+	public boolean isTargetFolderChanged() {
+		return _targetFolderChanged;
+	}
+
+	public void setTargetFolderChanged(boolean targetFolderChanged) {
+		_targetFolderChanged = targetFolderChanged;
+	}
+
+	/**
+	 * Write this plan with one tab separated line per action
+	 * (kind, exporter type, target folder, path, bytes) followed by one
+	 * summary line per action kind starting with '#'.
+	 * 
+	 * @param writer
+	 *            the writer which receives the plan
+	 * @throws IOException
+	 *             if the plan cannot be written
+	 */
+	public void write(Writer writer) throws IOException {
+		for (Action action : _actions) {
+			writer.write(action.toString());
+			writer.write("\n");
+		}
+		for (String kind : new String[] { ADD, UPDATE, REMOVE, CREATE_FOLDER, GC }) {
+			writer.write("#" + kind + "\t" + getCount(kind) + "\t" + getBytes(kind) + "\n");
+		}
+		writer.write("#target-folder-changed\t" + _targetFolderChanged + "\n");
+		writer.flush();
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fede.workspace.eclipse.composition.copy.composer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.resources.WorkspaceJob;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.MultiRule;
+
+import fede.workspace.eclipse.composition.copy.exporter.ExportCache;
+import fede.workspace.eclipse.composition.copy.exporter.ProjectExporter;
+import fr.imag.adele.cadse.core.CadseException;
+import fr.imag.adele.cadse.core.build.IBuildingContext;
+
+/**
+ * Coalesces the composition requests of a composite item. When components are
+ * built in burst, each build requests a composition ; the requests received
+ * during a quiet period are merged and only one composition is run, at the
+ * latest after a maximum latency from the first pending request.
+ * 
+ * The composition is run by a workspace job holding the projects of the
+ * composite and of its components, with the building context of the last
+ * request. The resource deltas of the builds which have requested it are no
+ * more available : the components are exported without delta, from their
+ * export snapshots, and the ones modified by the previous requests are fully
+ * exported.
+ * 
+ * The composers do not use a scheduler by themselves. A caller which
+ * composes a composite item for each build of its components, instead of
+ * calling {@link CopyIntoFolderComposer#compose(IBuildingContext)}, creates
+ * one scheduler for all the composites, calls
+ * {@link #schedule(CopyIntoFolderComposer, IBuildingContext, Collection)}
+ * with the components modified by each build, {@link #flush()} before an
+ * operation which needs the composites to be up to date (an export of the
+ * composites for example) and {@link #shutdown()} when it is stopped. The
+ * compositions are run with an opened {@link ExportCache}, by the
+ * {@link #flush()} as by the scheduled jobs, so that the components shared by
+ * the composites composed together are exported once.
+ * 
+ * @author Thomas
+ * 
+ */
+public class ComposeScheduler {
+
+	/**
+	 * Pending composition of a composite item.
+	 */
+	private class PendingCompose implements Runnable {
+
+		private final UUID				_compositeId;
+
+		private final long				_firstRequestTime;
+
+		private CopyIntoFolderComposer	_composer;
+
+		private IBuildingContext		_context;
+
+		private Set<UUID>				_lastComponents			= new HashSet<UUID>();
+
+		private Set<UUID>				_fullExportComponents	= new HashSet<UUID>();
+
+		private ScheduledFuture<?>		_future;
+
+		PendingCompose(UUID compositeId, long firstRequestTime) {
+			this._compositeId = compositeId;
+			this._firstRequestTime = firstRequestTime;
+		}
+
+		/**
+		 * Merge a new request into this pending composition.
+		 */
+		void merge(CopyIntoFolderComposer composer, IBuildingContext context, Collection<UUID> changedComponents) {
+			if (_context != null) {
+				// the delta of the previous request will not be available
+				_fullExportComponents.addAll(_lastComponents);
+			}
+			_composer = composer;
+			_context = context;
+			// a component already flagged stays flagged
+			_lastComponents = new HashSet<UUID>(changedComponents);
+		}
+
+		public void run() {
+			synchronized (ComposeScheduler.this) {
+				if (_pending.get(_compositeId) != this) {
+					return; // already run by flush
+				}
+				_pending.remove(_compositeId);
+			}
+			new ComposeJob(this).schedule();
+		}
+	}
+
+	/**
+	 * Runs a pending composition in the workspace.
+	 */
+	private class ComposeJob extends WorkspaceJob {
+
+		private final PendingCompose	_pendingCompose;
+
+		ComposeJob(PendingCompose pending) {
+			super("Compose " + pending._composer.getItem().getDisplayName());
+			this._pendingCompose = pending;
+			setRule(pending._composer.getSchedulingRule());
+			setPriority(BUILD);
+		}
+
+		@Override
+		public IStatus runInWorkspace(IProgressMonitor monitor) {
+			composeAll(Collections.singletonList(_pendingCompose), monitor);
+			return Status.OK_STATUS;
+		}
+	}
+
+	private final long						_quietPeriod;
+
+	private final long						_maxLatency;
+
+	private final Map<UUID, PendingCompose>	_pending	= new HashMap<UUID, PendingCompose>();
+
+	private final ScheduledExecutorService	_executor;
+
+	/**
+	 * Create a scheduler.
+	 * 
+	 * @param quietPeriod
+	 *            delay in milliseconds without request after which the
+	 *            pending composition is run
+	 * @param maxLatency
+	 *            maximum delay in milliseconds between the first pending
+	 *            request and the composition
+	 */
+	public ComposeScheduler(long quietPeriod, long maxLatency) {
+		if ((quietPeriod < 0) || (maxLatency < quietPeriod)) {
+			throw new IllegalArgumentException("quietPeriod must be positive and lower than maxLatency.");
+		}
+		this._quietPeriod = quietPeriod;
+		this._maxLatency = maxLatency;
+		// only one composition is run at a time
+		this._executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Compose scheduler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Request a composition of the composite item of the specified composer.
+	 * 
+	 * @param composer
+	 *            the composer to run
+	 * @param context
+	 *            the building context of the build which requests the
+	 *            composition
+	 * @param changedComponents
+	 *            identifiers of the components modified by this build
+	 */
+	public synchronized void schedule(CopyIntoFolderComposer composer, IBuildingContext context,
+			Collection<UUID> changedComponents) {
+		UUID compositeId = composer.getItem().getId();
+		long now = System.currentTimeMillis();
+
+		PendingCompose pending = _pending.get(compositeId);
+		if (pending == null) {
+			pending = new PendingCompose(compositeId, now);
+			_pending.put(compositeId, pending);
+		} else {
+			pending._future.cancel(false);
+		}
+		pending.merge(composer, context, changedComponents);
+
+		long delay = Math.min(_quietPeriod, pending._firstRequestTime + _maxLatency - now);
+		pending._future = _executor.schedule(pending, Math.max(0, delay), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Run all the pending compositions in the calling thread, which must be
+	 * allowed to hold their scheduling rules.
+	 * 
+	 * @throws CoreException
+	 *             if the workspace cannot run the compositions
+	 */
+	public void flush() throws CoreException {
+		final List<PendingCompose> pendings;
+		synchronized (this) {
+			pendings = new ArrayList<PendingCompose>(_pending.values());
+			_pending.clear();
+		}
+		if (pendings.isEmpty()) {
+			return;
+		}
+		ISchedulingRule[] rules = new ISchedulingRule[pendings.size()];
+		for (int i = 0; i < rules.length; i++) {
+			PendingCompose pending = pendings.get(i);
+			pending._future.cancel(false);
+			rules[i] = pending._composer.getSchedulingRule();
+		}
+		ResourcesPlugin.getWorkspace().run(new IWorkspaceRunnable() {
+			public void run(IProgressMonitor monitor) {
+				composeAll(pendings, monitor);
+			}
+		}, new MultiRule(rules), IWorkspace.AVOID_UPDATE, null);
+	}
+
+	/**
+	 * Run the pending compositions and stop the scheduler.
+	 * 
+	 * @throws CoreException
+	 *             if the workspace cannot run the compositions
+	 */
+	public void shutdown() throws CoreException {
+		try {
+			flush();
+		} finally {
+			_executor.shutdown();
+		}
+	}
+
+	/**
+	 * Run the specified compositions with an opened {@link ExportCache} : the
+	 * components shared by several composites are exported once.
+	 */
+	private void composeAll(List<PendingCompose> pendings, IProgressMonitor monitor) {
+		ExportCache.beginBuild();
+		try {
+			for (PendingCompose pending : pendings) {
+				compose(pending, monitor);
+			}
+		} finally {
+			ExportCache.endBuild();
+		}
+	}
+
+	private void compose(PendingCompose pending, IProgressMonitor monitor) {
+		ProjectExporter.beginDetachedExport((monitor != null) ? monitor : new NullProgressMonitor());
+		try {
+			pending._composer.compose(pending._context, pending._fullExportComponents);
+		} catch (CadseException e) {
+			pending._context.report("Error in composing item {0} : {1}", pending._compositeId, e.getMessage());
+			e.printStackTrace();
+		} finally {
+			ProjectExporter.endDetachedExport();
+		}
+	}
+}
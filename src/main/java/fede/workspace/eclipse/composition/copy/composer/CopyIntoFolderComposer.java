@@ -23,33 +23,50 @@ package fede.workspace.eclipse.composition.copy.composer;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.zip.Deflater;
 
 import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceVisitor;
 import org.eclipse.core.resources.ResourceAttributes;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.MultiRule;
 
+import fede.workspace.eclipse.MelusineProjectManager;
+import fede.workspace.eclipse.composition.copy.exporter.ExportCache;
+import fede.workspace.eclipse.composition.copy.exporter.ExportSnapshot;
 import fede.workspace.eclipse.composition.copy.exporter.FileExportedContent;
 import fede.workspace.eclipse.composition.copy.exporter.FolderExportedContent;
 import fede.workspace.eclipse.composition.copy.exporter.FolderMergeUtil;
 import fede.workspace.eclipse.composition.copy.exporter.IDeltaSetter;
+import fede.workspace.eclipse.composition.copy.exporter.IExportSink;
 import fede.workspace.eclipse.composition.copy.exporter.IPathable;
+import fede.workspace.eclipse.composition.copy.exporter.ParallelExport;
+import fede.workspace.eclipse.composition.copy.exporter.ProjectExporter;
 import fede.workspace.tool.eclipse.MappingManager;
 import fr.imag.adele.cadse.core.CadseException;
 import fr.imag.adele.cadse.core.content.ContentItem;
 import fr.imag.adele.cadse.core.Item;
 import fr.imag.adele.cadse.core.Link;
 import fr.imag.adele.cadse.core.build.Composer;
+import fr.imag.adele.cadse.core.build.Exporter;
 import fr.imag.adele.cadse.core.build.IBuildingContext;
 import fr.imag.adele.cadse.core.build.IExportedContent;
 import fr.imag.adele.cadse.core.build.IExporterTarget;
@@ -90,6 +107,57 @@ public abstract class CopyIntoFolderComposer extends Composer {
 
 	private final String			_name;
 
+	/**
+	 * The plan filled by a dry-run composition, null for a real composition.
+	 */
+	private ComposePlan				_plan;
+
+	/**
+	 * The files exported to the same target path by the current composition.
+	 */
+	private WriteConflictIndex		_conflictIndex;
+
+	/**
+	 * Components which must be fully exported by the current composition,
+	 * null if the links decide.
+	 */
+	private Set<UUID>				_fullExportComponents;
+
+	/**
+	 * The digests of the copied files, null to copy the files even if they
+	 * are up to date.
+	 */
+	private DigestCache				_digestCache;
+
+	/**
+	 * Extension of the archives written instead of the target folders (for
+	 * example ".jar"), null to copy the files into the target folders.
+	 */
+	private String					_archiveExtension;
+
+	/**
+	 * Compression level of the archive entries by exporter type.
+	 */
+	private Map<String, Integer>	_compressionLevels	= new HashMap<String, Integer>();
+
+	/**
+	 * True if the archives are rewritten with all the exported files, false
+	 * if the previous archives are patched with the exported deltas.
+	 */
+	private boolean					_rewriteArchives;
+
+	/**
+	 * Paths removed from the archives by the garbage collection, by target
+	 * folder.
+	 */
+	private Map<String, Set<IPath>>	_archiveRemovals;
+
+	/**
+	 * Exporters which have given their contents to this composer before the
+	 * composition (see {@link #isStreamingExport()}).
+	 */
+	private List<ProjectExporter>	_streamedExporters	= new ArrayList<ProjectExporter>();
+
 	/**
 	 * Create a Copy composer which will copy all exposed files and folders
 	 * which are flagged of one of the specified exported types.
@@ -109,6 +177,13 @@ public abstract class CopyIntoFolderComposer extends Composer {
 
 	@Override
 	protected boolean getFullExport(Link l, String exporterType) {
+		if (isArchiveMode() && _rewriteArchives) {
+			// there is no previous archive to patch
+			return true;
+		}
+		if ((_fullExportComponents != null) && _fullExportComponents.contains(l.getDestination().getId())) {
+			return true;
+		}
 		try {
 			return !((FolderExporterTarget) getCurrentTarget()).getRepository(exporterType).contains(l);
 		} catch (CoreException e) {
@@ -118,10 +193,66 @@ public abstract class CopyIntoFolderComposer extends Composer {
 		return super.getFullExport(l, exporterType);
 	}
 
+	/**
+	 * Compose forcing a full export of the specified components. It is used
+	 * when the resource deltas of the builds which modified these components
+	 * are no more available (see {@link ComposeScheduler}).
+	 * 
+	 * @param context
+	 *            the building context
+	 * @param fullExportComponents
+	 *            the identifiers of the components to export fully
+	 * @throws CadseException
+	 *             if the composition fails
+	 */
+	public synchronized void compose(IBuildingContext context, Set<UUID> fullExportComponents)
+			throws CadseException {
+		_fullExportComponents = fullExportComponents;
+		try {
+			compose(context);
+		} finally {
+			_fullExportComponents = null;
+		}
+	}
+
+	/**
+	 * Run exporting, merging and comparison with the repositories without any
+	 * modification of the target folders and of the repositories. The actions
+	 * which would be performed by a real composition are returned with the
+	 * number of bytes they concern.
+	 * 
+	 * @param context
+	 *            the building context
+	 * @return the actions which would be performed by a composition.
+	 * @throws CadseException
+	 *             if the composition fails
+	 */
+	public synchronized ComposePlan dryRun(IBuildingContext context) throws CadseException {
+		ComposePlan plan = new ComposePlan();
+		_plan = plan;
+		try {
+			compose(context);
+		} finally {
+			_plan = null;
+		}
+		return plan;
+	}
+
+	/**
+	 * Return true if the current composition is a dry-run : subclasses must
+	 * not modify the workspace in that case.
+	 * 
+	 * @return true if the current composition is a dry-run.
+	 */
+	protected boolean isDryRun() {
+		return _plan != null;
+	}
+
 	@Override
 	protected FolderExporterTarget getTarget() {
 		try {
-			return new FolderExporterTarget(getItem(), getTargetPath(), CopyIntoFolderComposer.class.getName(), _name);
+			return new FolderExporterTarget(getItem(), getTargetPath(), CopyIntoFolderComposer.class.getName(), _name,
+					_plan == null);
 		} catch (CoreException e) {
 			e.printStackTrace();
 		}
@@ -199,6 +330,336 @@ public abstract class CopyIntoFolderComposer extends Composer {
 		// keep a reference on the target to be sure to have the same target
 		// during all the build process
 		this._currentBuildTarget = (FolderExporterTarget) target;
+		_rewriteArchives = false;
+		if (isArchiveMode()) {
+			try {
+				_rewriteArchives = !getArchive(FolderExportedContent.DEFAULT_TARGET).exists();
+			} catch (CoreException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+				_rewriteArchives = true;
+			}
+		}
+
+		// the export tasks need the target (see getFullExport)
+		this.currentTarget = target;
+		boolean streamed = false;
+		if (isStreamingExport() && (getWriteConflictPolicy() == WriteConflictIndex.LAST_EXPORTED)
+				&& !isArchiveMode() && !isDryRun() && !_currentBuildTarget.targetFolderChanged()) {
+			streamed = streamComponents(context);
+		}
+		if (!streamed && isParallelExport()) {
+			ParallelExport.exportAll(context, target, getExportTasks());
+		}
+	}
+
+	/**
+	 * Open an export cache for the composition so that the components can be
+	 * exported concurrently before the composition (see
+	 * {@link #isParallelExport()}). During a workspace build, the cache is
+	 * already opened for the whole build.
+	 */
+	@Override
+	public void compose(IBuildingContext context) throws CadseException {
+		ExportCache.beginBuild();
+		try {
+			super.compose(context);
+		} finally {
+			if (_currentBuildTarget != null) {
+				// the composition has failed or is a dry-run
+				ExportSnapshot.discard(_currentBuildTarget, !isDryRun());
+			}
+			ExportCache.endBuild();
+			for (ProjectExporter exporter : _streamedExporters) {
+				exporter.endStreaming();
+			}
+			_streamedExporters.clear();
+		}
+	}
+
+	/**
+	 * Return true if the components are exported concurrently before the
+	 * composition.
+	 * 
+	 * @return true if the components are exported concurrently.
+	 */
+	protected boolean isParallelExport() {
+		return true;
+	}
+
+	/**
+	 * Return true if the files exported by the components are copied while
+	 * the components are scanned, instead of being collected in trees which
+	 * are merged at the end of the composition. It is only used with the
+	 * {@link WriteConflictIndex#LAST_EXPORTED} policy, when the target folder
+	 * has not changed and for a real composition into folders.
+	 * 
+	 * The streamed exports neither use the {@link ExportCache} nor run
+	 * concurrently (see {@link #isParallelExport()}), so the components are
+	 * not streamed by default.
+	 * 
+	 * @return true if the exported files are copied while they are exported.
+	 */
+	protected boolean isStreamingExport() {
+		return false;
+	}
+
+	/**
+	 * Copy the files exported by all the components of the composite item
+	 * while they are exported. The composition then receives empty contents
+	 * for these exports.
+	 * 
+	 * @param context
+	 *            the building context
+	 * @return false if the repositories cannot be read : the components are
+	 *         then exported into trees.
+	 */
+	private boolean streamComponents(IBuildingContext context) {
+		StreamingSink sink;
+		try {
+			sink = new StreamingSink(new WriteConflictIndex(Collections.<String, FolderExportedContent> emptyMap(),
+					WriteConflictIndex.LAST_EXPORTED, _currentBuildTarget, getExporterTypes()));
+		} catch (CoreException e) {
+			context.report("Unable to read the repositories of {0} : {1}", getItem().getId(), e.getMessage());
+			return false;
+		}
+		for (ParallelExport.Task task : getExportTasks()) {
+			ProjectExporter exporter = task.getExporter();
+			_streamedExporters.add(exporter);
+			try {
+				sink._repository = _currentBuildTarget.getRepository(task.getExporterType());
+				sink._owner = new Owner(exporter.getItem(), task.getExporterType());
+				exporter.exportItem(context, _currentBuildTarget, task.getExporterType(), task.isFullExport(), sink);
+			} catch (CoreException e) {
+				// the composition exports this component again
+				e.printStackTrace();
+				exporter.endStreaming();
+			}
+		}
+		sink.removeStaleRecords();
+		for (WriteConflictIndex.WriteConflict conflict : sink._conflicts) {
+			context.report("Write conflict on {0}", conflict);
+		}
+		return true;
+	}
+
+	/**
+	 * Receives the files and folders exported by the components and copies
+	 * them at once. The last exported file wins a write conflict, as with
+	 * {@link WriteConflictIndex#LAST_EXPORTED}, and a file exported by the
+	 * same component under several exporter types with the same source file is
+	 * copied once, as with the merged trees. The owners recorded in the
+	 * repositories by the previous builds lose against the exported files but
+	 * keep their files when another component removes them. Only the owner and
+	 * the source file of each copied path are kept, not the exported contents.
+	 */
+	private class StreamingSink implements IExportSink {
+
+		/**
+		 * The repository of the exporter type currently exported.
+		 */
+		private IRepository									_repository;
+
+		/**
+		 * The component and exporter type currently exported.
+		 */
+		private Owner											_owner;
+
+		/**
+		 * The last file copied to each path, by target folder.
+		 */
+		private final Map<String, Map<IPath, CopiedFile>>		_copied		= new HashMap<String, Map<IPath, CopiedFile>>();
+
+		private final List<WriteConflictIndex.WriteConflict>	_conflicts	= new ArrayList<WriteConflictIndex.WriteConflict>();
+
+		/**
+		 * The index used to look up the owners recorded in the repositories.
+		 */
+		private final WriteConflictIndex						_index;
+
+		/**
+		 * The files which lost a write conflict, by target folder.
+		 */
+		private final Map<String, List<FileExportedContent>>	_losers		= new HashMap<String, List<FileExportedContent>>();
+
+		StreamingSink(WriteConflictIndex index) {
+			this._index = index;
+		}
+
+		public void export(IDeltaSetter content, String targetFolder) throws CoreException {
+			if (targetFolder == null) {
+				targetFolder = FolderExportedContent.DEFAULT_TARGET;
+			}
+			if (!(content instanceof FileExportedContent)) {
+				performAction(_repository, content, targetFolder, true);
+				return;
+			}
+
+			FileExportedContent file = (FileExportedContent) content;
+			Map<IPath, CopiedFile> copied = _copied.get(targetFolder);
+			if (copied == null) {
+				copied = new HashMap<IPath, CopiedFile>();
+				_copied.put(targetFolder, copied);
+			}
+			CopiedFile previous = copied.get(file.getPath());
+			if (previous == null) {
+				FileExportedContent recorded = _index.getRecordedOwner(targetFolder, file);
+				if ((recorded != null) && file.isRemoved()) {
+					// the path belongs to another component : its file is kept
+					addLoser(targetFolder, file);
+					return;
+				}
+				if (recorded != null) {
+					// the last exported file wins
+					_conflicts.add(new WriteConflictIndex.WriteConflict(targetFolder, file.getPath(), file,
+							Collections.singletonList(recorded)));
+					addLoser(targetFolder, recorded);
+				}
+			}
+			if ((previous == null) || previous._owner._item.equals(file.getItem())) {
+				// a file shared with another exporter type has already been
+				// copied : it is only recorded
+				boolean shared = (previous != null) && !file.isRemoved()
+						&& !previous._owner._exporterType.equals(file.getExporterType())
+						&& previous._source.equals(file.getFile());
+				if (file.isRemoved()) {
+					copied.remove(file.getPath());
+				} else {
+					copied.put(file.getPath(), new CopiedFile(_owner, file.getFile()));
+				}
+				performAction(_repository, file, targetFolder, !shared);
+			} else if (!file.isRemoved()) {
+				// another component has written this path : the last one wins
+				FileExportedContent loser = new FileExportedContent(file.getPath(), _currentBuildTarget
+						.getTargetFolder(targetFolder, false).getFile(file.getPath()), previous._owner._item,
+						previous._owner._exporterType, false, true, false);
+				_conflicts.add(new WriteConflictIndex.WriteConflict(targetFolder, file.getPath(), file, Collections
+						.singletonList(loser)));
+				addLoser(targetFolder, loser);
+				copied.put(file.getPath(), new CopiedFile(_owner, file.getFile()));
+				performAction(_repository, file, targetFolder, true);
+			} else {
+				// the removal of a path written by another component is
+				// ignored
+				addLoser(targetFolder, file);
+			}
+		}
+
+		private void addLoser(String targetFolder, FileExportedContent loser) {
+			List<FileExportedContent> losers = _losers.get(targetFolder);
+			if (losers == null) {
+				losers = new ArrayList<FileExportedContent>();
+				_losers.put(targetFolder, losers);
+			}
+			losers.add(loser);
+		}
+
+		/**
+		 * Remove the repository entries left by the losers, once all the
+		 * components are exported : a loser which has written its file again
+		 * later owns it.
+		 */
+		void removeStaleRecords() {
+			for (Map.Entry<String, List<FileExportedContent>> e : _losers.entrySet()) {
+				Map<IPath, CopiedFile> copied = _copied.get(e.getKey());
+				for (FileExportedContent loser : e.getValue()) {
+					CopiedFile last = (copied == null) ? null : copied.get(loser.getPath());
+					if ((last == null) || !last._owner._item.equals(loser.getItem())) {
+						_index.addStaleRecord(e.getKey(), loser);
+					}
+				}
+			}
+			_index.removeStaleRecords();
+		}
+	}
+
+	/**
+	 * A component and an exporter type which have copied files while they
+	 * were exported.
+	 */
+	private static class Owner {
+
+		private final Item		_item;
+
+		private final String	_exporterType;
+
+		Owner(Item item, String exporterType) {
+			this._item = item;
+			this._exporterType = exporterType;
+		}
+	}
+
+	/**
+	 * A file copied to a path of a target folder while it was exported.
+	 */
+	private static class CopiedFile {
+
+		private final Owner	_owner;
+
+		private final IFile	_source;
+
+		CopiedFile(Owner owner, IFile source) {
+			this._owner = owner;
+			this._source = source;
+		}
+	}
+
+	/**
+	 * Return the scheduling rule of a composition run outside of a build : the
+	 * project of the composite item, in which the target folders are written,
+	 * and the projects of its components, in which the exporters may record
+	 * their state.
+	 * 
+	 * @return the scheduling rule of a composition.
+	 */
+	public ISchedulingRule getSchedulingRule() {
+		List<ISchedulingRule> rules = new ArrayList<ISchedulingRule>();
+		IProject project = MelusineProjectManager.getProject(getItem());
+		if (project != null) {
+			rules.add(project);
+		}
+		for (Link l : getItem().getOutgoingLinks()) {
+			Item component = l.getDestination();
+			if ((component == null) || !getItem().containsComponent(component.getId())) {
+				continue;
+			}
+			IProject componentProject = MelusineProjectManager.getProject(component);
+			if ((componentProject != null) && !rules.contains(componentProject)) {
+				rules.add(componentProject);
+			}
+		}
+		return new MultiRule(rules.toArray(new ISchedulingRule[rules.size()]));
+	}
+
+	/**
+	 * Return the exports of all the components of the composite item with the
+	 * exporter types of this composer, in the order of the links.
+	 * 
+	 * @return the exports of all the components of the composite item.
+	 */
+	private List<ParallelExport.Task> getExportTasks() {
+		List<ParallelExport.Task> tasks = new ArrayList<ParallelExport.Task>();
+		Set<String> exported = new HashSet<String>();
+		for (Link l : getItem().getOutgoingLinks()) {
+			Item component = l.getDestination();
+			if ((component == null) || !getItem().containsComponent(component.getId())
+					|| (component.getContentItem() == null)) {
+				continue;
+			}
+			for (Exporter exporter : component.getContentItem().getExporters()) {
+				if (!(exporter instanceof ProjectExporter)) {
+					continue;
+				}
+				List<String> exporterTypes = Arrays.asList(exporter.getExporterTypes());
+				for (String exporterType : getExporterTypes()) {
+					if (exporterTypes.contains(exporterType) && exported.add(component.getId() + exporterType)) {
+						tasks.add(new ParallelExport.Task((ProjectExporter) exporter, exporterType, getFullExport(l,
+								exporterType)));
+					}
+				}
+			}
+		}
+		return tasks;
 	}
 
 	@Override
@@ -221,36 +682,41 @@ public abstract class CopyIntoFolderComposer extends Composer {
 			}
 		}
 
-		// save links
-		try {
-			for (String t : this.getExporterTypes()) {
-				IRepository repository = _currentBuildTarget.getRepository(t);
-				repository.beginSaveLinks();
-				for (IExportedContent exportedContent : listExportedContent) {
-					FolderExportedContent content = (FolderExportedContent) exportedContent;
-					if (!(content.getExporterType().equals(t))) {
-						continue;
+		// save links (the repositories are not modified by a dry-run)
+		if (_plan == null) {
+			try {
+				for (String t : this.getExporterTypes()) {
+					IRepository repository = _currentBuildTarget.getRepository(t);
+					repository.beginSaveLinks();
+					for (IExportedContent exportedContent : listExportedContent) {
+						FolderExportedContent content = (FolderExportedContent) exportedContent;
+						if (!(content.getExporterType().equals(t))) {
+							continue;
+						}
+						repository.saveLink(content.getLink());
 					}
-					repository.saveLink(content.getLink());
+					repository.endSaveLinks();
 				}
-				repository.endSaveLinks();
+			} catch (CoreException e1) {
+				// TODO Auto-generated catch block
+				e1.printStackTrace();
 			}
-		} catch (CoreException e1) {
-			// TODO Auto-generated catch block
-			e1.printStackTrace();
 		}
 
 		HashMap<String, FolderExportedContent> targetFolders = new HashMap<String, FolderExportedContent>();
 
 		// merge differents trees
 		if (listExportedContent.size() > 0) {
+			Map<String, List<FolderExportedContent>> treesByTarget = new LinkedHashMap<String, List<FolderExportedContent>>();
 			for (IExportedContent ec : listExportedContent) {
 				FolderExportedContent fec = (FolderExportedContent) ec;
 				if (fec.isTargetFolder()) {
-					for (IExportedContent childEc : fec.getChildren()) {
+					List<IExportedContent> members = fec.getMembers();
+					for (int i = 0; i < members.size(); i++) {
+						IExportedContent childEc = members.get(i);
 						FolderExportedContent childFec = (FolderExportedContent) childEc;
 						String targetFolder = childFec.getTargetFolder();
-						merge(targetFolders, childFec, targetFolder);
+						addTree(treesByTarget, childFec, targetFolder);
 					}
 					continue;
 				}
@@ -258,14 +724,33 @@ public abstract class CopyIntoFolderComposer extends Composer {
 				if (targetFolder == null) {
 					targetFolder = FolderExportedContent.DEFAULT_TARGET;
 				}
-				merge(targetFolders, fec, targetFolder);
+				addTree(treesByTarget, fec, targetFolder);
 			}
+			FolderMergeUtil.mergeAll(treesByTarget, targetFolders);
+		}
+
+		// detect the paths exported several times before any copy, including
+		// the paths owned by the components in the repositories
+		try {
+			_conflictIndex = new WriteConflictIndex(targetFolders, getWriteConflictPolicy(), _currentBuildTarget,
+					getExporterTypes());
+		} catch (CoreException e) {
+			context.report("Unable to read the repositories of {0} : {1}", getItem().getId(), e.getMessage());
+			_conflictIndex = new WriteConflictIndex(targetFolders, getWriteConflictPolicy());
+		}
+		for (WriteConflictIndex.WriteConflict conflict : _conflictIndex.getConflicts()) {
+			context.report("Write conflict on {0}", conflict);
 		}
 
 		/**
 		 * Manage target folder changes between builds
 		 */
-		if (_currentBuildTarget.targetFolderChanged()) {
+		if (_plan != null) {
+			_plan.setTargetFolderChanged(_currentBuildTarget.targetFolderChanged());
+		} else if (isArchiveMode()) {
+			// the archives replace the target folders
+			_currentBuildTarget.saveTargetFolderRef();
+		} else if (_currentBuildTarget.targetFolderChanged()) {
 			moveOldTargetFolderContent(getLastTargetFolder(), _currentBuildTarget.getTargetFolder());
 		} else {
 			_currentBuildTarget.saveTargetFolderRef();
@@ -276,10 +761,13 @@ public abstract class CopyIntoFolderComposer extends Composer {
 		 */
 		// Add all exported content that they are not present in target + update
 		// + delete
+		boolean copied = true;
 		for (Map.Entry<String, FolderExportedContent> e : targetFolders.entrySet()) {
 			String targetFolder = e.getKey();
 			FolderExportedContent fec = e.getValue();
-			for (IExportedContent exportedContent : fec.getChildren()) {
+			List<IExportedContent> members = fec.getMembers();
+			for (int i = 0; i < members.size(); i++) {
+				IExportedContent exportedContent = members.get(i);
 				if (exportedContent instanceof IDeltaSetter) {
 					IDeltaSetter deltaContent = (IDeltaSetter) exportedContent;
 					try {
@@ -294,34 +782,315 @@ public abstract class CopyIntoFolderComposer extends Composer {
 
 						repository = _currentBuildTarget.getRepository(deltaContent.getExporterType());
 
-						performAction(repository, deltaContent, targetFolder);
+						if (_plan != null) {
+							planAction(repository, deltaContent, targetFolder);
+						} else {
+							performAction(repository, deltaContent, targetFolder);
+						}
 					} catch (CoreException execpt) {
 						// TODO Auto-generated catch block
 						execpt.printStackTrace();
+						copied = false;
 					}
 				}
 			}
 		}
 
+		// the files of the losers are not recorded any more
+		if (_plan == null) {
+			_conflictIndex.removeStaleRecords();
+		}
+
 		// Garbage collection of non existing component item contents in target
 		// content
-		postGarbageCollect(context);
+		if (isArchiveMode() && (_plan == null)) {
+			_archiveRemovals = new HashMap<String, Set<IPath>>();
+			postGarbageCollect(context);
+			writeArchives(context, targetFolders);
+			_archiveRemovals = null;
+		} else {
+			postGarbageCollect(context);
+		}
+
+		// the exported contents are recorded once they are copied
+		if (_plan == null) {
+			// the target folders may be exported by this item
+			ExportCache.invalidate(getItem().getId());
+			if (copied) {
+				ExportSnapshot.commit(_currentBuildTarget);
+			} else {
+				ExportSnapshot.discard(_currentBuildTarget, true);
+			}
+		}
 		_currentBuildTarget = null;
+		_conflictIndex = null;
+	}
+
+	/**
+	 * Return the policy used to choose the file to copy when several
+	 * components export a file to the same path.
+	 * 
+	 * @return the policy used to solve write conflicts.
+	 */
+	protected IWriteConflictPolicy getWriteConflictPolicy() {
+		return WriteConflictIndex.LAST_EXPORTED;
+	}
+
+	/**
+	 * Return the cache of the digests of the copied files or null if the files
+	 * are copied even if they are up to date.
+	 * 
+	 * @return the cache of the digests of the copied files.
+	 */
+	public DigestCache getDigestCache() {
+		return _digestCache;
+	}
+
+	/**
+	 * Set the cache of the digests of the copied files. The target files whose
+	 * content has the digest recorded in the repository are not copied again.
+	 * 
+	 * @param digestCache
+	 *            a digest cache (usually
+	 *            {@link DigestCache#getWorkspaceCache()}), null to copy the
+	 *            files even if they are up to date
+	 */
+	public void setDigestCache(DigestCache digestCache) {
+		_digestCache = digestCache;
+	}
+
+	/**
+	 * Return the extension of the archives written instead of the target
+	 * folders or null if the files are copied into the target folders.
+	 * 
+	 * @return the extension of the archives or null.
+	 */
+	public String getArchiveExtension() {
+		return _archiveExtension;
+	}
+
+	/**
+	 * Set the archive mode : each target folder is replaced by an archive
+	 * named after the folder with the specified extension, and the merged
+	 * exported contents are streamed into it without any copy in the target
+	 * folder. The repositories are updated as for a copy, so an existing
+	 * archive is patched with the exported deltas. A dry-run still plans the
+	 * copy into the target folders.
+	 * 
+	 * @param archiveExtension
+	 *            the archive extension (".jar" or ".zip"), null to copy the
+	 *            files into the target folders
+	 */
+	public void setArchiveExtension(String archiveExtension) {
+		_archiveExtension = archiveExtension;
+	}
+
+	/**
+	 * Return true if the merged exported contents are written into archives.
+	 * 
+	 * @return true if the merged exported contents are written into archives.
+	 */
+	protected boolean isArchiveMode() {
+		return _archiveExtension != null;
 	}
 
-	private void merge(HashMap<String, FolderExportedContent> targetFolders, FolderExportedContent fec,
+	/**
+	 * Return the compression level of the archive entries of the specified
+	 * exporter type.
+	 * 
+	 * @param exporterType
+	 *            an exporter type
+	 * @return a deflate level or {@link ArchiveWriter#STORED}.
+	 */
+	public int getCompressionLevel(String exporterType) {
+		Integer level = _compressionLevels.get(exporterType);
+		return (level == null) ? Deflater.DEFAULT_COMPRESSION : level.intValue();
+	}
+
+	/**
+	 * Set the compression level of the archive entries of the specified
+	 * exporter type.
+	 * 
+	 * @param exporterType
+	 *            an exporter type
+	 * @param level
+	 *            a deflate level (see {@link Deflater}) or
+	 *            {@link ArchiveWriter#STORED}
+	 */
+	public void setCompressionLevel(String exporterType, int level) {
+		_compressionLevels.put(exporterType, level);
+	}
+
+	/**
+	 * Return the archive which replaces the specified target folder.
+	 * 
+	 * @param targetFolder
+	 *            a target folder path or
+	 *            {@link FolderExportedContent#DEFAULT_TARGET}
+	 * @return the archive which replaces the specified target folder.
+	 * @throws CoreException
+	 */
+	private IFile getArchive(String targetFolder) throws CoreException {
+		IContainer folder = _currentBuildTarget.getTargetFolder(targetFolder, false);
+		return folder.getParent().getFile(new Path(folder.getName() + _archiveExtension));
+	}
+
+	/**
+	 * Write one archive per target folder. The entries of the previous archive
+	 * which are neither exported again nor removed are copied with their
+	 * compressed bytes ; only the added and updated files are compressed.
+	 * 
+	 * @param context
+	 *            the building context
+	 * @param targetFolders
+	 *            the merged exported contents by target folder
+	 */
+	private void writeArchives(IBuildingContext context, Map<String, FolderExportedContent> targetFolders) {
+		Set<String> archivedTargetFolders = new HashSet<String>(targetFolders.keySet());
+		archivedTargetFolders.addAll(_archiveRemovals.keySet());
+		for (String targetFolder : archivedTargetFolders) {
+			// the last content exported to a path wins as in a target folder
+			Map<IPath, IExportedContent> entries = new LinkedHashMap<IPath, IExportedContent>();
+			Set<IPath> removals = new HashSet<IPath>();
+			if (targetFolders.containsKey(targetFolder)) {
+				collectArchiveEntries(targetFolders.get(targetFolder), entries, removals);
+			}
+			if (_archiveRemovals.containsKey(targetFolder)) {
+				removals.addAll(_archiveRemovals.get(targetFolder));
+			}
+
+			IFile archive = null;
+			ArchiveReader reader = null;
+			ArchiveWriter writer = null;
+			try {
+				archive = getArchive(targetFolder);
+				IContainer parent = archive.getParent();
+				if (!parent.exists() && FileUtil.isFolder(parent)) {
+					MappingManager.createFolder((IFolder) parent, View.getDefaultMonitor());
+				}
+				context.subTask("writing archive " + archive.getFullPath());
+				writer = new ArchiveWriter(archive);
+
+				if (!_rewriteArchives && archive.exists()) {
+					reader = new ArchiveReader(FileUtil.getFile(archive));
+					for (ArchiveReader.Entry entry : reader.getEntries()) {
+						String name = entry.getName();
+						IPath path = new Path(name.endsWith("/") ? name.substring(0, name.length() - 1) : name);
+						if (!entries.containsKey(path) && !isRemoved(path, removals)) {
+							writer.copyEntry(reader, entry);
+						}
+					}
+					reader.close();
+					reader = null;
+				}
+
+				for (Map.Entry<IPath, IExportedContent> entry : entries.entrySet()) {
+					IExportedContent content = entry.getValue();
+					if (content instanceof FileExportedContent) {
+						writer.addFile(entry.getKey(), ((FileExportedContent) content).getFile(),
+								getCompressionLevel(content.getExporterType()));
+					} else {
+						writer.addFolder(entry.getKey());
+					}
+				}
+				writer.close(View.getDefaultMonitor());
+			} catch (IOException ioe) {
+				abortArchive(context, archive, reader, writer, ioe);
+			} catch (CoreException ce) {
+				abortArchive(context, archive, reader, writer, ce);
+			}
+		}
+	}
+
+	/**
+	 * Delete an archive which cannot be written : the repositories are
+	 * already updated, so the next composition must rewrite it with all the
+	 * exported files.
+	 */
+	private void abortArchive(IBuildingContext context, IFile archive, ArchiveReader reader, ArchiveWriter writer,
+			Exception e) {
+		context.report("Cannot write archive {0} : {1}", archive == null ? null : archive.getFullPath(), e
+				.getMessage());
+		e.printStackTrace();
+		if (reader != null) {
+			try {
+				reader.close();
+			} catch (IOException ioe) {
+				// TODO Auto-generated catch block
+				ioe.printStackTrace();
+			}
+		}
+		if (writer != null) {
+			writer.abort();
+		}
+		if (archive != null) {
+			try {
+				archive.delete(true, View.getDefaultMonitor());
+			} catch (CoreException ce) {
+				// TODO Auto-generated catch block
+				ce.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Return true if the specified path or one of its parents is removed.
+	 */
+	private static boolean isRemoved(IPath path, Set<IPath> removals) {
+		for (int i = path.segmentCount(); i > 0; i--) {
+			if (removals.contains(path.uptoSegment(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void collectArchiveEntries(FolderExportedContent folder, Map<IPath, IExportedContent> entries,
+			Set<IPath> removals) {
+		List<IExportedContent> members = folder.getMembers();
+		for (int i = 0; i < members.size(); i++) {
+			IExportedContent content = members.get(i);
+			if (!(content instanceof IDeltaSetter) || _conflictIndex.isLoser(content)) {
+				continue;
+			}
+			IPath path = ((IPathable) content).getPath();
+			if (((IDeltaSetter) content).isRemoved()) {
+				removals.add(path);
+			} else if (content instanceof FolderExportedContent) {
+				if (!path.isEmpty() && !entries.containsKey(path)) {
+					entries.put(path, content);
+				}
+				collectArchiveEntries((FolderExportedContent) content, entries, removals);
+			} else {
+				entries.remove(path);
+				entries.put(path, content);
+			}
+		}
+	}
+
+	private void addTree(Map<String, List<FolderExportedContent>> treesByTarget, FolderExportedContent fec,
 			String targetFolder) {
-		FolderExportedContent current = targetFolders.get(targetFolder);
-		if (current != null) {
-			FolderMergeUtil.merge(current, fec);
-		} else {
-			targetFolders.put(targetFolder, fec);
+		List<FolderExportedContent> trees = treesByTarget.get(targetFolder);
+		if (trees == null) {
+			trees = new ArrayList<FolderExportedContent>();
+			treesByTarget.put(targetFolder, trees);
 		}
+		trees.add(fec);
 	}
 
 	private void moveOldTargetFolderContent(IContainer oldFolder, IContainer newFolder) {
 
 		if (!_currentBuildTarget.targetFolderChangeProcessPhase1Finished()) {
+			if (_currentBuildTarget.targetFolderRenameProcessStarted()) {
+				// finish an interrupted rename process
+				renameOldTargetFolderContent(oldFolder, newFolder, _currentBuildTarget.loadRenameJournal());
+				return;
+			}
+			if (isRenameOnTargetFolderChange() && _currentBuildTarget.canRenameLastTargetFolderContent()) {
+				renameOldTargetFolderContent(oldFolder, newFolder, null);
+				return;
+			}
+
 			performTargetChangeProcessPhase1();
 		}
 
@@ -345,6 +1114,67 @@ public abstract class CopyIntoFolderComposer extends Composer {
 		_currentBuildTarget.finishTargetChangeProcess();
 	}
 
+	/**
+	 * Return true if the content of the last target folder must be renamed
+	 * into the new target folder (when both share the same file system)
+	 * instead of being copied through a temporary folder.
+	 * 
+	 * @return true if the content of the last target folder must be renamed.
+	 */
+	protected boolean isRenameOnTargetFolderChange() {
+		return true;
+	}
+
+	/**
+	 * Move all files and folders added by this composer from the old target
+	 * folder to the new one by renaming them. Fully managed subtrees are
+	 * renamed with one operation. The planned operations are saved in a
+	 * journal before any move so that an interrupted process is replayed at
+	 * the next build.
+	 * 
+	 * @param oldFolder
+	 *            the last target folder
+	 * @param newFolder
+	 *            the new target folder
+	 * @param journal
+	 *            the journal of an interrupted process or null to start a new
+	 *            one
+	 */
+	private void renameOldTargetFolderContent(IContainer oldFolder, IContainer newFolder, List<String> journal) {
+		Set<IRepository> repositories = new HashSet<IRepository>();
+		try {
+			for (String exporterType : getExporterTypes()) {
+				repositories.add(_currentBuildTarget.getRepository(exporterType));
+			}
+		} catch (CoreException e) {
+			// TODO should manage it
+			e.printStackTrace();
+			return;
+		}
+
+		RenameMover mover = new RenameMover(repositories, oldFolder, newFolder);
+		if (journal == null) {
+			try {
+				journal = mover.plan();
+			} catch (CoreException e) {
+				// TODO should manage it
+				e.printStackTrace();
+				return;
+			}
+			_currentBuildTarget.startTargetRenameProcess(journal);
+		}
+
+		mover.replay(journal);
+
+		// Delete old target folder if empty and has been created by this
+		// composer
+		_currentBuildTarget.deleteOldTargetFolder();
+
+		// Update Repository properties to tell that the move has been completly
+		// performed
+		_currentBuildTarget.finishTargetChangeProcess();
+	}
+
 	private void performTargetChangeProcessPhase1() {
 		_currentBuildTarget.startTargetChangeProcess();
 
@@ -396,126 +1226,495 @@ public abstract class CopyIntoFolderComposer extends Composer {
 	}
 
 	/**
-	 * This class is a visitor that scans a directory and deleting all files and
-	 * folders added by this composer.
+	 * This class scans a directory and deletes all files and folders added by
+	 * this composer. The directory is traversed once in post-order : a folder
+	 * is known to contain only managed members when all its children have
+	 * been visited, and such a folder is deleted with a single operation by
+	 * the first ancestor which is not fully managed.
 	 * 
 	 * @author thomas
 	 * 
 	 */
-	private class MultiRepositoryScanner implements IResourceVisitor {
+	private class MultiRepositoryScanner {
 
 		private IContainer			_folderToScan;
 
-		private IProgressMonitor	_monitor;
+		private IProgressMonitor	_monitor;
+
+		private Set<IRepository>	_repositories;
+
+		public MultiRepositoryScanner(Set<IRepository> repositories) {
+			this._monitor = View.getDefaultMonitor();
+			this._repositories = repositories;
+		}
+
+		/**
+		 * This methods iterates over all files and folders of the specified
+		 * folder and delete them if they have been added by this composer.
+		 * 
+		 * @param lastTargetFolder
+		 *            the folder in which files and folder must be cleaned
+		 */
+		public void scan(IContainer lastTargetFolder) throws CoreException {
+			this._folderToScan = lastTargetFolder;
+
+			List<IResource> managedFolders = new ArrayList<IResource>();
+			if (!clean(_folderToScan, managedFolders)) {
+				return;
+			}
+			if (isManaged(true, PathUtil.getRelativePath(_folderToScan, _folderToScan))) {
+				_folderToScan.delete(true, _monitor);
+			} else {
+				delete(managedFolders);
+			}
+		}
+
+		/**
+		 * Delete the managed files of the specified folder and the managed
+		 * sub-folders which contain only managed members. The sub-folders are
+		 * not deleted if the specified folder contains only managed members :
+		 * they are added to the specified list and the caller deletes either
+		 * the whole subtree, if the folder is managed, or these sub-folders.
+		 * 
+		 * @param folder
+		 *            the folder to clean
+		 * @param managedFolders
+		 *            the list to which the managed sub-folders to delete are
+		 *            added if all the members of the folder are managed
+		 * @return true if and only if all its members (recursivly) have been
+		 *         added by this composer (added by setted in the repository).
+		 * @throws CoreException
+		 */
+		private boolean clean(IContainer folder, List<IResource> managedFolders) throws CoreException {
+
+			boolean onlyManagedMembers = true;
+			List<IResource> folderManagedFolders = new ArrayList<IResource>();
+			for (IResource resource : folder.members(false)) {
+				IPath relPath = PathUtil.getRelativePath(_folderToScan, resource);
+				boolean isFolder = FileUtil.isFolder(resource);
+				boolean managed = isManaged(isFolder, relPath);
+
+				if (!isFolder) {
+					if (managed) {
+						resource.delete(true, _monitor);
+					} else {
+						onlyManagedMembers = false;
+					}
+					continue;
+				}
+
+				List<IResource> subManagedFolders = new ArrayList<IResource>();
+				if (!clean((IFolder) resource, subManagedFolders)) {
+					onlyManagedMembers = false;
+				} else if (managed) {
+					folderManagedFolders.add(resource);
+				} else {
+					// an unmanaged folder is kept, but not its managed
+					// sub-folders
+					onlyManagedMembers = false;
+					folderManagedFolders.addAll(subManagedFolders);
+				}
+			}
+
+			if (onlyManagedMembers) {
+				managedFolders.addAll(folderManagedFolders);
+			} else {
+				// prune the fully managed subtrees
+				delete(folderManagedFolders);
+			}
+
+			return onlyManagedMembers;
+		}
+
+		/**
+		 * Delete the specified resources.
+		 * 
+		 * @param resources
+		 *            the resources to delete
+		 * @throws CoreException
+		 */
+		private void delete(List<IResource> resources) throws CoreException {
+			for (IResource resource : resources) {
+				resource.delete(true, _monitor);
+			}
+		}
+
+		/**
+		 * Return true if the resource represented by the specified path is
+		 * managed by one of the repositories.
+		 * 
+		 * @param isFolder
+		 *            must be true if the represented resource is a folder
+		 * @param relPath
+		 *            the path of the resource to check
+		 * @return true if the resource represented by the specified path is
+		 *         managed by one of the repositories.
+		 */
+		private boolean isManaged(boolean isFolder, IPath relPath) {
+			return CopyIntoFolderComposer.isManaged(_repositories, isFolder, relPath);
+		}
+	}
+
+	/**
+	 * This class moves the files and folders added by this composer from the
+	 * last target folder to the new one, and copies the other files and
+	 * folders known by the repositories as the copy through a temporary folder
+	 * does. The moves are planned into a journal of entries
+	 * "&lt;kind&gt;:&lt;relative path&gt;" which can be replayed several
+	 * times with the same result.
+	 * 
+	 * @author thomas
+	 * 
+	 */
+	private class RenameMover {
+
+		private static final String	RENAME_FILE		= "rename-file";
+
+		private static final String	RENAME_FOLDER	= "rename-folder";
+
+		private static final String	OVERWRITE_FILE	= "overwrite-file";
+
+		private static final String	CREATE_FOLDER	= "create-folder";
+
+		private static final String	MERGE_FOLDER	= "merge-folder";
+
+		private static final String	COPY_FILE		= "copy-file";
+
+		private static final String	OVERWRITE_COPY	= "overwrite-copy";
+
+		private static final String	COPY_FOLDER		= "copy-folder";
+
+		private static final String	MERGE_COPY		= "merge-copy";
+
+		private IContainer			_oldFolder;
+
+		private IContainer			_newFolder;
+
+		private IProgressMonitor	_monitor;
+
+		private Set<IRepository>	_repositories;
+
+		public RenameMover(Set<IRepository> repositories, IContainer oldFolder, IContainer newFolder) {
+			this._monitor = View.getDefaultMonitor();
+			this._repositories = repositories;
+			this._oldFolder = oldFolder;
+			this._newFolder = newFolder;
+		}
+
+		/**
+		 * Compute the journal of the moves to perform. Entries are ordered so
+		 * that a folder is always created before its members are moved.
+		 * 
+		 * @return the journal of the moves to perform.
+		 * @throws CoreException
+		 *             if a folder cannot be listed.
+		 */
+		public List<String> plan() throws CoreException {
+			List<String> journal = new ArrayList<String>();
+			plan(_oldFolder, journal);
+			return journal;
+		}
+
+		/**
+		 * Plan the moves of the members of the specified folder.
+		 * 
+		 * @return true if and only if all the members (recursivly) of the
+		 *         folder are managed by one of the repositories.
+		 */
+		private boolean plan(IContainer folder, List<String> journal) throws CoreException {
+			boolean onlyManagedMembers = true;
+			for (IResource resource : folder.members(false)) {
+				if (resource.equals(_newFolder)) {
+					// the new target folder is located in the old one
+					onlyManagedMembers = false;
+					continue;
+				}
+
+				IPath relPath = PathUtil.getRelativePath(_oldFolder, resource);
+				boolean isFolder = FileUtil.isFolder(resource);
+				boolean managed = isManaged(_repositories, isFolder, relPath);
+				onlyManagedMembers &= managed;
+
+				if (!isFolder) {
+					boolean exists = _newFolder.getFile(relPath).exists();
+					if (managed) {
+						journal.add(entry(exists ? OVERWRITE_FILE : RENAME_FILE, relPath));
+					} else if (isTracked(false, relPath)) {
+						// updated but not added by this composer : it is kept
+						journal.add(entry(exists ? OVERWRITE_COPY : COPY_FILE, relPath));
+					}
+					continue;
+				}
+
+				boolean exists = _newFolder.getFolder(relPath).exists();
+				List<String> membersJournal = new ArrayList<String>();
+				boolean onlyManagedSubMembers = plan((IFolder) resource, membersJournal);
+				onlyManagedMembers &= onlyManagedSubMembers;
+
+				if (managed && onlyManagedSubMembers && !exists) {
+					journal.add(entry(RENAME_FOLDER, relPath));
+					continue;
+				}
+				if (managed) {
+					journal.add(entry(exists ? MERGE_FOLDER : CREATE_FOLDER, relPath));
+				} else if (isTracked(true, relPath)) {
+					journal.add(entry(exists ? MERGE_COPY : COPY_FOLDER, relPath));
+				}
+				journal.addAll(membersJournal);
+			}
+
+			return onlyManagedMembers;
+		}
+
+		/**
+		 * Return true if the resource represented by the specified path is
+		 * known by one of the repositories.
+		 */
+		private boolean isTracked(boolean isFolder, IPath relPath) {
+			for (IRepository repository : _repositories) {
+				if (repository.getTargetContent(relPath, isFolder) != null) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private String entry(String kind, IPath relPath) {
+			return kind + ":" + relPath.toPortableString();
+		}
 
-		private Set<IRepository>	_repositories;
+		private String kindOf(String entry) {
+			return entry.substring(0, entry.indexOf(':'));
+		}
 
-		public MultiRepositoryScanner(Set<IRepository> repositories) {
-			this._monitor = View.getDefaultMonitor();
-			this._repositories = repositories;
+		private IPath pathOf(String entry) {
+			return Path.fromPortableString(entry.substring(entry.indexOf(':') + 1));
 		}
 
 		/**
-		 * This methods iterates over all files and folders of the specified
-		 * folder and delete them if they have been added by this composer.
+		 * Perform all the moves of the journal. The moves which have already
+		 * been performed are skipped.
 		 * 
-		 * @param lastTargetFolder
-		 *            the folder in which files and folder must be cleaned
+		 * @param journal
+		 *            the journal computed by {@link #plan()}
 		 */
-		public void scan(IContainer lastTargetFolder) throws CoreException {
-			this._folderToScan = lastTargetFolder;
+		public void replay(List<String> journal) {
+			for (String entry : journal) {
+				String kind = kindOf(entry);
+				IPath relPath = pathOf(entry);
+				try {
+					if (RENAME_FILE.equals(kind)) {
+						rename(_oldFolder.getFile(relPath), _newFolder.getFile(relPath));
+					} else if (RENAME_FOLDER.equals(kind)) {
+						rename(_oldFolder.getFolder(relPath), _newFolder.getFolder(relPath));
+					} else if (OVERWRITE_FILE.equals(kind)) {
+						overwrite(_oldFolder.getFile(relPath), _newFolder.getFile(relPath), relPath);
+					} else if (CREATE_FOLDER.equals(kind)) {
+						createFolder(_newFolder.getFolder(relPath), relPath);
+					} else if (MERGE_FOLDER.equals(kind) || MERGE_COPY.equals(kind)) {
+						markAsNotAdded(relPath, true);
+					} else if (COPY_FILE.equals(kind)) {
+						copy(_oldFolder.getFile(relPath), _newFolder.getFile(relPath));
+						markAsAdded(relPath, false);
+					} else if (OVERWRITE_COPY.equals(kind)) {
+						copy(_oldFolder.getFile(relPath), _newFolder.getFile(relPath));
+						markAsNotAdded(relPath, false);
+					} else if (COPY_FOLDER.equals(kind)) {
+						createFolder(_newFolder.getFolder(relPath), relPath);
+					}
+				} catch (CoreException e) {
+					// TODO should manage it
+					e.printStackTrace();
+				}
+			}
 
-			_folderToScan.accept(this);
+			// Delete the old folders whose members have all been moved ; the
+			// copied folders are kept
+			for (int i = journal.size() - 1; i >= 0; i--) {
+				String entry = journal.get(i);
+				String kind = kindOf(entry);
+				if (!(CREATE_FOLDER.equals(kind) || MERGE_FOLDER.equals(kind))) {
+					continue;
+				}
+				IFolder oldFolder = _oldFolder.getFolder(pathOf(entry));
+				try {
+					if (oldFolder.exists() && (oldFolder.members(false).length == 0)) {
+						oldFolder.delete(true, _monitor);
+					}
+				} catch (CoreException e) {
+					// TODO should manage it
+					e.printStackTrace();
+				}
+			}
 		}
 
 		/**
-		 * This callback method is called to visit and delete all resource which
-		 * has been added by this composer (if all its members have the same
-		 * property).
-		 * 
-		 * @param resource
-		 *            an eclipse resource
+		 * Rename the specified resource. If the rename fails, the resource is
+		 * copied then deleted.
 		 */
-		public boolean visit(IResource resource) throws CoreException {
-
-			IPath relPath = PathUtil.getRelativePath(_folderToScan, resource);
-			boolean isFolder = FileUtil.isFolder(resource);
-
-			if (isManaged(isFolder, relPath)) {
-				if (isFolder) {
-					// delete if all files and folders
-					// have been added by this composer
-					if (containOnlyManagedMembers((IFolder) resource)) {
-						resource.delete(true, _monitor);
-						return false;
-					}
+		private void rename(IResource oldResource, IResource newResource) throws CoreException {
+			if (!oldResource.exists()) {
+				return; // already performed
+			}
+			if (newResource.exists()) {
+				// the copy which replaces a failed rename has been interrupted
+				finishCopy(oldResource, newResource);
+				return;
+			}
 
-					return true;
-				} else {
-					resource.delete(true, _monitor);
+			createParent(newResource);
+			try {
+				oldResource.move(newResource.getFullPath(), true, _monitor);
+			} catch (CoreException e) {
+				oldResource.copy(newResource.getFullPath(), true, _monitor);
+				oldResource.delete(true, _monitor);
+			}
+		}
 
-					return false;
+		/**
+		 * Finish an interrupted copy of the specified resource, then delete
+		 * it. A file may have been partially copied, so its content is copied
+		 * again.
+		 */
+		private void finishCopy(IResource oldResource, IResource newResource) throws CoreException {
+			if (oldResource instanceof IFile) {
+				setContents((IFile) oldResource, (IFile) newResource);
+			} else {
+				IContainer newContainer = (IContainer) newResource;
+				for (IResource member : ((IContainer) oldResource).members(false)) {
+					IPath memberPath = new Path(member.getName());
+					rename(member, (member instanceof IFile) ? newContainer.getFile(memberPath) : newContainer
+							.getFolder(memberPath));
 				}
 			}
-
-			return isFolder;
+			oldResource.delete(true, _monitor);
 		}
 
 		/**
-		 * Return true if and only if all its members (recursivly) have been
-		 * added by this composer (added by setted in the repository).
-		 * 
-		 * @param folder
-		 * @return
-		 * @throws CoreException
+		 * Copy the content of a managed file into an existing file and delete
+		 * the managed file.
 		 */
-		private boolean containOnlyManagedMembers(IFolder folder) throws CoreException {
-
-			for (IResource resource : folder.members(false)) {
-				boolean isFolder = FileUtil.isFolder(resource);
-
-				IPath relPath = PathUtil.getRelativePath(_folderToScan, resource);
+		private void overwrite(IFile oldFile, IFile newFile, IPath relPath) throws CoreException {
+			if (oldFile.exists()) {
+				setContents(oldFile, newFile);
+				oldFile.delete(true, _monitor);
+			}
+			// the repositories are updated even if the file has been deleted
+			// by an interrupted replay
+			markAsNotAdded(relPath, false);
+		}
 
-				if (!isManaged(isFolder, relPath)) {
-					return false;
-				}
+		/**
+		 * Copy a file which is not deleted from the last target folder. The
+		 * new file may exist if the copy has already been performed.
+		 */
+		private void copy(IFile oldFile, IFile newFile) throws CoreException {
+			if (!oldFile.exists()) {
+				return;
+			}
+			if (newFile.exists()) {
+				setContents(oldFile, newFile);
+			} else {
+				createParent(newFile);
+				oldFile.copy(newFile.getFullPath(), true, _monitor);
+			}
+		}
 
-				if (isFolder && (!containOnlyManagedMembers((IFolder) resource))) {
-					return false;
+		private void setContents(IFile oldFile, IFile newFile) throws CoreException {
+			InputStream fileStream = oldFile.getContents(true);
+			try {
+				newFile.setContents(fileStream, true, true, _monitor);
+			} finally {
+				try {
+					fileStream.close();
+				} catch (IOException e) {
+					// the content has been read
 				}
 			}
-
-			return true;
 		}
 
 		/**
-		 * Return true if the resource represented by the specified path is
-		 * managed by one of the repositories.
-		 * 
-		 * @param isFolder
-		 *            must be true if the represented resource is a folder
-		 * @param relPath
-		 *            the path of the resource to check
-		 * @return true if the resource represented by the specified path is
-		 *         managed by one of the repositories.
+		 * Create a folder which has not been renamed (some of its members
+		 * are not managed) and update the repositories.
 		 */
-		private boolean isManaged(boolean isFolder, IPath relPath) {
+		private void createFolder(IFolder newFolder, IPath relPath) throws CoreException {
+			MappingManager.createFolder(newFolder, _monitor);
+			markAsAdded(relPath, true);
+		}
 
-			boolean managed = false;
+		/**
+		 * Update the repositories for a resource which did not exist in the
+		 * new target folder : it has been added by this composer.
+		 */
+		private void markAsAdded(IPath relPath, boolean isFolder) {
 			for (IRepository repository : _repositories) {
 				ITargetContent targetContent = repository.getTargetContent(relPath, isFolder);
+				if ((targetContent != null) && (targetContent.addedBy() == null)) {
+					targetContent.setAddedBy(targetContent.updatedBy());
+					repository.add(targetContent);
+				}
+			}
+		}
 
+		/**
+		 * Update the repositories for a resource which already existed in the
+		 * new target folder : it has not been added by this composer.
+		 */
+		private void markAsNotAdded(IPath relPath, boolean isFolder) {
+			for (IRepository repository : _repositories) {
+				ITargetContent targetContent = repository.getTargetContent(relPath, isFolder);
 				if (targetContent == null) {
 					continue;
 				}
 
-				if (targetContent.addedBy() != null) {
-					managed = true;
+				Item addedByItem = targetContent.addedBy();
+				if (addedByItem != null) {
+					targetContent.setAddedBy(null);
+					if (targetContent.lastOpIsAdd()) {
+						targetContent.setUpdatedBy(addedByItem);
+					}
+					repository.add(targetContent);
 				}
 			}
+		}
+
+		private void createParent(IResource newResource) throws CoreException {
+			IContainer parent = newResource.getParent();
+			if (FileUtil.isFolder(parent) && !parent.exists()) {
+				MappingManager.createFolder((IFolder) parent, _monitor);
+			}
+		}
+	}
+
+	/**
+	 * Return true if the resource represented by the specified path is managed
+	 * by one of the repositories.
+	 * 
+	 * @param repositories
+	 *            the repositories to look up
+	 * @param isFolder
+	 *            must be true if the represented resource is a folder
+	 * @param relPath
+	 *            the path of the resource to check
+	 * @return true if the resource represented by the specified path is
+	 *         managed by one of the repositories.
+	 */
+	private static boolean isManaged(Set<IRepository> repositories, boolean isFolder, IPath relPath) {
+
+		boolean managed = false;
+		for (IRepository repository : repositories) {
+			ITargetContent targetContent = repository.getTargetContent(relPath, isFolder);
+
+			if (targetContent == null) {
+				continue;
+			}
 
-			return managed;
+			if (targetContent.addedBy() != null) {
+				managed = true;
+			}
 		}
+
+		return managed;
 	}
 
 	/**
@@ -697,6 +1896,28 @@ public abstract class CopyIntoFolderComposer extends Composer {
 	 */
 	private void performAction(IRepository repository, IDeltaSetter deltaContent, String targetFolder)
 			throws CoreException {
+		if (_conflictIndex.isLoser(deltaContent)) {
+			return;
+		}
+		// a file shared with another exporter type has already been copied
+		performAction(repository, deltaContent, targetFolder, !_conflictIndex.isShared(deltaContent));
+	}
+
+	/**
+	 * Perform action (copy content, update repository...) for the component
+	 * exposed content.
+	 * 
+	 * @param repository
+	 *            repository which reference this content
+	 * @param deltaContent
+	 *            the component exposed content to manage
+	 * @param targetFolder
+	 * @param copy
+	 *            false if the content must only be recorded in the repository
+	 * @throws CoreException
+	 */
+	private void performAction(IRepository repository, IDeltaSetter deltaContent, String targetFolder, boolean copy)
+			throws CoreException {
 		IPath targetPath = null;
 		if (deltaContent instanceof IPathable) {
 			IPathable contentPathable = (IPathable) deltaContent;
@@ -704,19 +1925,34 @@ public abstract class CopyIntoFolderComposer extends Composer {
 		}
 
 		// Copy content
-		IResource targetResource = getResource(_currentBuildTarget.getTargetFolder(targetFolder), targetPath,
-				isFolder(deltaContent));
+		IResource targetResource = getResource(_currentBuildTarget.getTargetFolder(targetFolder, !isArchiveMode()),
+				targetPath, isFolder(deltaContent));
 		// TODO manage case of file and folder coexists with same name
+		boolean isFolder = (targetResource instanceof IFolder);
+		ITargetContent targetContent = repository.getTargetContent(targetPath, isFolder);
+		boolean copied = false;
+		boolean wholeSubtree = false;
+		String digest = null;
 		try {
-			manageTargetResoure(deltaContent, targetPath, targetResource);
+			// the archives are written after the repositories update
+			if (copy && !isArchiveMode()) {
+				copied = true;
+				wholeSubtree = isWholeSubtree(deltaContent, targetPath, targetResource);
+				if (wholeSubtree && deltaContent.isAdded()) {
+					copySubtree((FolderExportedContent) deltaContent, (IFolder) targetResource);
+				} else {
+					digest = getDigest(deltaContent);
+					if ((digest == null) || !isUpToDate(targetContent, targetResource, digest)) {
+						manageTargetResoure(deltaContent, targetPath, targetResource);
+					}
+				}
+			}
 		} catch (CoreException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 
 		// Update repository
-		boolean isFolder = (targetResource instanceof IFolder);
-		ITargetContent targetContent = repository.getTargetContent(targetPath, isFolder);
 		if (targetContent != null) {
 			if (targetContent.getTarget() != null && !targetFolder.equals(targetContent.getTarget())) {
 				// TODO move target
@@ -726,6 +1962,9 @@ public abstract class CopyIntoFolderComposer extends Composer {
 		} else {
 			targetContent = constructTargetContFrom(deltaContent, targetFolder);
 		}
+		if (copied && (targetContent instanceof FileTargetContent)) {
+			((FileTargetContent) targetContent).setDigest(digest);
+		}
 		repository.add(targetContent);
 
 		// Must call recursive function only when the container has been created
@@ -733,14 +1972,226 @@ public abstract class CopyIntoFolderComposer extends Composer {
 			return;
 		}
 
-		for (IExportedContent childContent : deltaContent.getChildren()) {
+		List<IExportedContent> members = FolderExportedContent.membersOf(deltaContent);
+		for (int i = 0; i < members.size(); i++) {
+			IExportedContent childContent = members.get(i);
 			if (childContent instanceof IDeltaSetter) {
 				IDeltaSetter childDeltaContent = (IDeltaSetter) childContent;
-				performAction(repository, childDeltaContent, targetFolder);
+				if (wholeSubtree) {
+					// already copied or deleted with the folder
+					performAction(repository, childDeltaContent, targetFolder, false);
+				} else {
+					performAction(repository, childDeltaContent, targetFolder);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return true if the specified folder is added or removed with its whole
+	 * subtree and can be copied or deleted at once : no file of the subtree
+	 * is exported several times and, for an addition, the target folder does
+	 * not exist yet and the files are copied directly.
+	 * 
+	 * @param deltaContent
+	 *            the component exposed content
+	 * @param targetPath
+	 *            the path of the content relative to the target folder
+	 * @param targetResource
+	 *            the target resource of the content
+	 * @return true if the whole subtree can be copied or deleted at once.
+	 * @throws CoreException
+	 *             if the members of the source folder cannot be read
+	 */
+	private boolean isWholeSubtree(IDeltaSetter deltaContent, IPath targetPath, IResource targetResource)
+			throws CoreException {
+		if (!(deltaContent instanceof FolderExportedContent) || !(targetResource instanceof IFolder)) {
+			return false;
+		}
+		FolderExportedContent folder = (FolderExportedContent) deltaContent;
+		// the members of a streamed folder are given after it
+		if ((folder.getSubtreeSource() == null) || folder.getMembers().isEmpty()) {
+			return false;
+		}
+		if ((_conflictIndex != null) && _conflictIndex.isContested(targetPath)) {
+			return false;
+		}
+		if (folder.isRemoved()) {
+			return true;
+		}
+		return (_digestCache == null) && !isSetReadOnly() && !targetResource.exists()
+				&& folder.getSubtreeSource().exists() && hasSameMembers(folder, folder.getSubtreeSource());
+	}
+
+	/**
+	 * Return true if the members of the specified source folder are exactly
+	 * the exported members of the specified folder, recursively : the source
+	 * folder can then be copied at once without copying filtered resources.
+	 * 
+	 * @param folder
+	 *            an added folder
+	 * @param source
+	 *            the source folder of its subtree
+	 * @return true if the source folder has exactly the exported members.
+	 * @throws CoreException
+	 *             if the members of the source folder cannot be read
+	 */
+	private static boolean hasSameMembers(FolderExportedContent folder, IContainer source) throws CoreException {
+		IResource[] sourceMembers = source.members(IContainer.INCLUDE_TEAM_PRIVATE_MEMBERS);
+		List<IExportedContent> members = folder.getMembers();
+		if (sourceMembers.length != members.size()) {
+			return false;
+		}
+		Map<String, IResource> sourceMembersByName = new HashMap<String, IResource>();
+		for (IResource sourceMember : sourceMembers) {
+			sourceMembersByName.put(sourceMember.getName(), sourceMember);
+		}
+		for (int i = 0; i < members.size(); i++) {
+			IExportedContent member = members.get(i);
+			if (!((member instanceof FileExportedContent) || (member instanceof FolderExportedContent))
+					|| ((IDeltaSetter) member).isRemoved()) {
+				return false;
+			}
+			IResource sourceMember = sourceMembersByName.remove(((IPathable) member).getPath().lastSegment());
+			if (member instanceof FileExportedContent) {
+				if ((sourceMember == null) || !sourceMember.equals(((FileExportedContent) member).getFile())) {
+					return false;
+				}
+			} else if (!(sourceMember instanceof IContainer)
+					|| !hasSameMembers((FolderExportedContent) member, (IContainer) sourceMember)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copy the source folder of an added subtree with all its members.
+	 * 
+	 * @param folder
+	 *            an added whole subtree
+	 * @param targetFolder
+	 *            the target folder, which does not exist
+	 * @throws CoreException
+	 *             if the folder cannot be copied
+	 */
+	private void copySubtree(FolderExportedContent folder, IFolder targetFolder) throws CoreException {
+		IContainer targetParent = targetFolder.getParent();
+		if (FileUtil.isFolder(targetParent)) {
+			MappingManager.createFolder((IFolder) targetParent, View.getDefaultMonitor());
+		}
+		folder.getSubtreeSource().copy(targetFolder.getFullPath(), true, View.getDefaultMonitor());
+	}
+
+	/**
+	 * Add to the current plan the actions which would be performed by
+	 * {@link #performAction(IRepository, IDeltaSetter, String)} for the
+	 * component exposed content.
+	 * 
+	 * @param repository
+	 *            repository which reference this content
+	 * @param deltaContent
+	 *            the component exposed content to plan
+	 * @param targetFolder
+	 * @throws CoreException
+	 */
+	private void planAction(IRepository repository, IDeltaSetter deltaContent, String targetFolder)
+			throws CoreException {
+		if (_conflictIndex.isLoser(deltaContent)) {
+			return;
+		}
+
+		IPath targetPath = null;
+		if (deltaContent instanceof IPathable) {
+			targetPath = ((IPathable) deltaContent).getPath();
+		}
+
+		boolean isFolder = isFolder(deltaContent);
+		IResource targetResource = getResource(_currentBuildTarget.getTargetFolder(targetFolder, false), targetPath,
+				isFolder);
+		String exporterType = deltaContent.getExporterType();
+		if (deltaContent.isRemoved()) {
+			if (targetResource.exists()) {
+				_plan.add(new ComposePlan.Action(ComposePlan.REMOVE, exporterType, targetFolder, targetPath,
+						getSize(targetResource)));
+			}
+			return;
+		}
+
+		if (isFolder) {
+			if (!targetResource.exists()) {
+				_plan.add(new ComposePlan.Action(ComposePlan.CREATE_FOLDER, exporterType, targetFolder, targetPath, 0));
+			}
+		} else if (!_conflictIndex.isShared(deltaContent)) {
+			// an existing file known by the repository is updated, even if the
+			// component flags it as added
+			boolean update = targetResource.exists() || (repository.getTargetContent(targetPath, false) != null);
+			_plan.add(new ComposePlan.Action(update ? ComposePlan.UPDATE : ComposePlan.ADD, exporterType,
+					targetFolder, targetPath, getSize(((FileExportedContent) deltaContent).getFile())));
+		}
+
+		if (!deltaContent.hasChildren()) {
+			return;
+		}
+
+		List<IExportedContent> members = FolderExportedContent.membersOf(deltaContent);
+		for (int i = 0; i < members.size(); i++) {
+			IExportedContent childContent = members.get(i);
+			if (childContent instanceof IDeltaSetter) {
+				planAction(repository, (IDeltaSetter) childContent, targetFolder);
 			}
 		}
 	}
 
+	/**
+	 * Return the size in bytes of the specified file or 0 if it is not a
+	 * local file.
+	 * 
+	 * @param resource
+	 *            a resource
+	 * @return the size in bytes of the specified file.
+	 */
+	private static long getSize(IResource resource) {
+		if (!(resource instanceof IFile) || (resource.getLocation() == null)) {
+			return 0;
+		}
+		return FileUtil.getFile((IFile) resource).length();
+	}
+
+	/**
+	 * Return the digest of the file to copy for the component exposed content
+	 * or null if there is no digest cache or nothing to copy.
+	 * 
+	 * @param deltaContent
+	 *            the component exposed content
+	 * @return the digest of the file to copy or null.
+	 * @throws CoreException
+	 *             if the file cannot be read
+	 */
+	private String getDigest(IDeltaSetter deltaContent) throws CoreException {
+		if ((_digestCache == null) || deltaContent.isRemoved() || isFolder(deltaContent)) {
+			return null;
+		}
+		return _digestCache.digest(((FileExportedContent) deltaContent).getFile());
+	}
+
+	/**
+	 * Return true if the target file exists and the repository records that
+	 * the content with the specified digest has been copied into it.
+	 * 
+	 * @param targetContent
+	 *            the repository entry of the target file, can be null
+	 * @param targetResource
+	 *            the target file
+	 * @param digest
+	 *            the digest of the content to copy
+	 * @return true if the target file is up to date.
+	 */
+	private static boolean isUpToDate(ITargetContent targetContent, IResource targetResource, String digest) {
+		return (targetContent instanceof FileTargetContent)
+				&& digest.equals(((FileTargetContent) targetContent).getDigest()) && targetResource.exists();
+	}
+
 	/**
 	 * Perform copy or remove action for the component exposed content. Action
 	 * type depends on the delta content flags.
@@ -851,6 +2302,51 @@ public abstract class CopyIntoFolderComposer extends Composer {
 	}
 
 	private void postGarbageCollect(final IBuildingContext context) {
+		if (_plan != null) {
+			garbageCollect(context, new GarbageCollectJob() {
+				@Override
+				public void delete(ITargetContent content, IRepository repository) throws CadseException {
+					Item addedBy = content.addedBy();
+					if ((addedBy == null) || getItem().containsComponent(addedBy.getId())) {
+						return;
+					}
+
+					IPath path = ((IPathable) content).getPath();
+					boolean isFolder = (content instanceof FolderTargetContent);
+					IResource resource = getResource(_currentBuildTarget.getTargetFolder(), path, isFolder);
+					_plan.add(new ComposePlan.Action(ComposePlan.GC, ((IExportedContent) content).getExporterType(),
+							content.getTarget(), path, getSize(resource)));
+				}
+			});
+			return;
+		}
+
+		if (_archiveRemovals != null) {
+			garbageCollect(context, new GarbageCollectJob() {
+				@Override
+				public void delete(ITargetContent content, IRepository repository) throws CadseException {
+					Item addedBy = content.addedBy();
+					if ((addedBy == null) || getItem().containsComponent(addedBy.getId())) {
+						return;
+					}
+
+					// the path is removed from the archive when it is patched
+					String targetFolder = content.getTarget();
+					if (targetFolder == null) {
+						targetFolder = FolderExportedContent.DEFAULT_TARGET;
+					}
+					Set<IPath> removals = _archiveRemovals.get(targetFolder);
+					if (removals == null) {
+						removals = new HashSet<IPath>();
+						_archiveRemovals.put(targetFolder, removals);
+					}
+					removals.add(((IPathable) content).getPath());
+					repository.remove(content);
+				}
+			});
+			return;
+		}
+
 		garbageCollect(context, new GarbageCollectJob() {
 			@Override
 			public void delete(ITargetContent content, IRepository repository) throws CadseException {
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fede.workspace.eclipse.composition.copy.composer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+
+/**
+ * Digests of the contents of the files copied by the composers. The
+ * repositories record the digest of each copied file, so a target file whose
+ * recorded digest is the digest of its source is not copied again. All the
+ * composites of the workspace share the same cache.
+ * 
+ * The digest of a file is kept with its modification stamp, for a bounded
+ * number of the most recently used files.
+ * 
+ * @author Thomas
+ * 
+ */
+public class DigestCache {
+
+	private static final String		PLUGIN_ID			= "fr.imag.adele.cadse.model.runtime.copycomposer";
+	private static final String		DIGEST_ALGORITHM	= "SHA-1";
+	private static final char[]		HEX_DIGITS			= "0123456789abcdef".toCharArray();
+
+	/**
+	 * Default number of files whose digest is cached.
+	 */
+	public static final int			DEFAULT_SIZE		= 10000;
+
+	private static DigestCache		_workspaceCache;
+
+	/**
+	 * A digest and the modification stamp of the file when it was computed.
+	 */
+	private static class Digest {
+
+		final long		_modificationStamp;
+
+		final String	_digest;
+
+		Digest(long modificationStamp, String digest) {
+			this._modificationStamp = modificationStamp;
+			this._digest = digest;
+		}
+	}
+
+	private final Map<IPath, Digest>	_digests;
+
+	/**
+	 * Create a cache of the digests of the specified number of files.
+	 * 
+	 * @param size
+	 *            the maximum number of files whose digest is cached
+	 */
+	public DigestCache(final int size) {
+		this._digests = new LinkedHashMap<IPath, Digest>(16, 0.75f, true) {
+			private static final long	serialVersionUID	= 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<IPath, Digest> eldest) {
+				return size() > size;
+			}
+		};
+	}
+
+	/**
+	 * Return the cache shared by all the composites of the workspace.
+	 * 
+	 * @return the cache shared by all the composites of the workspace.
+	 */
+	public static synchronized DigestCache getWorkspaceCache() {
+		if (_workspaceCache == null) {
+			_workspaceCache = new DigestCache(DEFAULT_SIZE);
+		}
+		return _workspaceCache;
+	}
+
+	/**
+	 * Return the digest of the content of the specified file.
+	 * 
+	 * @param file
+	 *            a file
+	 * @return the digest of the content of the specified file.
+	 * @throws CoreException
+	 *             if the file cannot be read
+	 */
+	public String digest(IFile file) throws CoreException {
+		IPath path = file.getFullPath();
+		long modificationStamp = file.getModificationStamp();
+		synchronized (_digests) {
+			Digest digest = _digests.get(path);
+			if ((digest != null) && (digest._modificationStamp == modificationStamp)) {
+				return digest._digest;
+			}
+		}
+
+		String digest;
+		InputStream in = file.getContents(true);
+		try {
+			MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				md.update(buffer, 0, read);
+			}
+			digest = toHex(md.digest());
+		} catch (IOException e) {
+			throw newCoreException("Cannot read " + path, e);
+		} catch (NoSuchAlgorithmException e) {
+			throw newCoreException(DIGEST_ALGORITHM + " is not available", e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// the digest is computed
+			}
+		}
+
+		synchronized (_digests) {
+			_digests.put(path, new Digest(modificationStamp, digest));
+		}
+		return digest;
+	}
+
+	private static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+			chars[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+
+	private static CoreException newCoreException(String message, Throwable cause) {
+		return new CoreException(new Status(IStatus.ERROR, PLUGIN_ID, message, cause));
+	}
+}
@@ -28,10 +28,10 @@ import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
-import org.eclipse.core.runtime.Path;
 
 import fede.workspace.eclipse.composition.CompositeBuildingContext;
 import fede.workspace.eclipse.composition.copy.exporter.FileExportedContent;
+import fede.workspace.eclipse.composition.copy.exporter.PathPool;
 import fr.imag.adele.cadse.core.CadseException;
 import java.util.UUID;
 import fr.imag.adele.cadse.core.LogicalWorkspace;
@@ -60,6 +60,11 @@ public class FileTargetContent extends FileExportedContent implements ITargetCon
 
 	private String						_target;
 
+	/**
+	 * Digest of the copied content (see {@link DigestCache}), null if unknown.
+	 */
+	private String						_digest;
+
 	private FileTargetContent() {
 		super();
 		// used by serialization mechanism
@@ -103,7 +108,7 @@ public class FileTargetContent extends FileExportedContent implements ITargetCon
 	}
 
 	public Item addedBy() {
-		return _model.getItem(_addedItemId);
+		return (_addedItemId == null) ? null : _model.getItem(_addedItemId);
 	}
 
 	public boolean lastOpIsAdd() {
@@ -119,11 +124,11 @@ public class FileTargetContent extends FileExportedContent implements ITargetCon
 	}
 
 	public Item removedBy() {
-		return _model.getItem(_removedItemId);
+		return (_removedItemId == null) ? null : _model.getItem(_removedItemId);
 	}
 
 	public Item updatedBy() {
-		return _model.getItem(_updatedItemId);
+		return (_updatedItemId == null) ? null : _model.getItem(_updatedItemId);
 	}
 
 	private void writeObject(ObjectOutputStream out) throws IOException {
@@ -133,7 +138,7 @@ public class FileTargetContent extends FileExportedContent implements ITargetCon
 
 	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
 		in.defaultReadObject();
-		_relativePath = Path.fromPortableString((String) in.readObject());
+		_relativePath = PathPool.fromPortableString((String) in.readObject());
 	}
 
 	public void setModel(LogicalWorkspace model) {
@@ -167,17 +172,17 @@ public class FileTargetContent extends FileExportedContent implements ITargetCon
 
 	public void setAddedBy(Item item) {
 		flagAdded();
-		_addedItemId = item.getId();
+		_addedItemId = (item == null) ? null : item.getId();
 	}
 
 	public void setRemovedBy(Item item) {
 		flagRemoved();
-		_removedItemId = item.getId();
+		_removedItemId = (item == null) ? null : item.getId();
 	}
 
 	public void setUpdatedBy(Item item) {
 		flagUpdated();
-		_updatedItemId = item.getId();
+		_updatedItemId = (item == null) ? null : item.getId();
 	}
 
 	public String getTarget() {
@@ -187,4 +192,18 @@ public class FileTargetContent extends FileExportedContent implements ITargetCon
 	public void setTarget(String target) {
 		_target = (target);
 	}
+
+	/**
+	 * Return the digest of the content copied into the target file or null if
+	 * it is unknown.
+	 * 
+	 * @return the digest of the content copied into the target file.
+	 */
+	public String getDigest() {
+		return _digest;
+	}
+
+	public void setDigest(String digest) {
+		_digest = digest;
+	}
 }
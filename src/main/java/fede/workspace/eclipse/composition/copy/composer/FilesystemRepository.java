@@ -38,6 +38,7 @@ import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 
 import fede.workspace.eclipse.composition.copy.exporter.IPathable;
+import fede.workspace.eclipse.composition.copy.exporter.PathPool;
 import fede.workspace.tool.eclipse.MappingManager;
 import fr.imag.adele.cadse.core.Item;
 import fr.imag.adele.cadse.core.Link;
@@ -208,7 +209,7 @@ public class FilesystemRepository implements IRepository {
 	private IPath getTargetPath(IFolder folder, IFile file) {
 		IPath relPath = PathUtil.getRelativePath(folder, file);
 
-		return removeSerSuffix(relPath);
+		return PathPool.intern(removeSerSuffix(relPath));
 	}
 
 	/**
@@ -229,7 +230,7 @@ public class FilesystemRepository implements IRepository {
 			int suffixIdx = fileName.length() - suffix.length();
 			String endStr = fileName.substring(suffixIdx, fileName.length());
 			if (endStr.equalsIgnoreCase(suffix)) {
-				return path.removeLastSegments(1).append(fileName.substring(0, suffixIdx));
+				return PathPool.intern(path.removeLastSegments(1).append(fileName.substring(0, suffixIdx)));
 			}
 		}
 
@@ -20,6 +20,7 @@
  */
 package fede.workspace.eclipse.composition.copy.composer;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
@@ -54,6 +55,11 @@ public class FolderExporterTarget implements ICompositeDescExporterTarget {
 	private static final String	LAST_TARGET_FOLDER_PROP_NAME					= "lastTargetFolder";
 	private static final String	CURRENT_TARGET_FOLDER_PROP_NAME					= "currentTargetFolder";
 	private static final String	CHANGE_TARGET_FOLDER_PROCESS_PHASE1_PROP_NAME	= "changeTargetFolderProcessPhase1";
+	private static final String	CHANGE_TARGET_FOLDER_PROCESS_MODE_PROP_NAME		= "changeTargetFolderProcessMode";
+	private static final String	RENAME_PROCESS_MODE								= "rename";
+	private static final String	RENAME_JOURNAL_FILE_NAME						= "rename-journal.properties";
+	private static final String	RENAME_JOURNAL_SIZE_PROP_NAME					= "size";
+	private static final String	RENAME_JOURNAL_ENTRY_PROP_NAME					= "entry.";
 
 	private IContainer			_targetFolder;
 
@@ -67,6 +73,19 @@ public class FolderExporterTarget implements ICompositeDescExporterTarget {
 
 	public FolderExporterTarget(Item compositeItem, IPath targetPath, String composerType, String composerName)
 			throws CoreException {
+		this(compositeItem, targetPath, composerType, composerName, true);
+	}
+
+	/**
+	 * Create a folder exporter target.
+	 * 
+	 * @param createTargetFolder
+	 *            if false, the target folder is not created when it does not
+	 *            exist (used to plan a composition without modifying the
+	 *            target)
+	 */
+	public FolderExporterTarget(Item compositeItem, IPath targetPath, String composerType, String composerName,
+			boolean createTargetFolder) throws CoreException {
 
 		this._item = compositeItem;
 		this._composerType = composerType;
@@ -76,7 +95,7 @@ public class FolderExporterTarget implements ICompositeDescExporterTarget {
 				.getFolder(targetPath);
 
 		// create the target folder if it does not exist
-		if (!_targetFolder.exists()) {
+		if (createTargetFolder && !_targetFolder.exists()) {
 			createTargetFolder();
 		}
 	}
@@ -92,6 +111,14 @@ public class FolderExporterTarget implements ICompositeDescExporterTarget {
 		return _item;
 	}
 
+	public String getComposerType() {
+		return _composerType;
+	}
+
+	public String getComposerName() {
+		return _composerName;
+	}
+
 	private void createTargetFolder() throws CoreException {
 
 		saveCreatedFolderNames();
@@ -180,13 +207,28 @@ public class FolderExporterTarget implements ICompositeDescExporterTarget {
 	 * @throws CoreException
 	 */
 	public IContainer getTargetFolder(String path) throws CoreException {
+		return getTargetFolder(path, true);
+	}
+
+	/**
+	 * Return the target folder represented by the specified path.
+	 * 
+	 * @param path
+	 *            a path relative to the target parent container or
+	 *            {@link FolderExportedContent#DEFAULT_TARGET}
+	 * @param create
+	 *            if true, the folder is created when it does not exist
+	 * @return the target folder represented by the specified path.
+	 * @throws CoreException
+	 */
+	public IContainer getTargetFolder(String path, boolean create) throws CoreException {
 		if (FolderExportedContent.DEFAULT_TARGET.equals(path)) {
 			return _targetFolder;
 		}
 		Path targetPath = new Path(path);
 		IContainer folder = targetPath.isEmpty() ? _targetParentContainer : _targetParentContainer
 				.getFolder(targetPath);
-		if (!folder.exists() && FileUtil.isFolder(folder)) {
+		if (create && !folder.exists() && FileUtil.isFolder(folder)) {
 			MappingManager.createFolder((IFolder) folder, View.getDefaultMonitor());
 		}
 
@@ -285,11 +327,14 @@ public class FolderExporterTarget implements ICompositeDescExporterTarget {
 		Properties repoProps = loadRepoProperties();
 
 		repoProps.setProperty(CHANGE_TARGET_FOLDER_PROCESS_PHASE1_PROP_NAME, Boolean.toString(false));
+		repoProps.remove(CHANGE_TARGET_FOLDER_PROCESS_MODE_PROP_NAME);
 		String newTargetFolderStr = getTargetFolder().getFullPath().toPortableString();
 		repoProps.setProperty(LAST_TARGET_FOLDER_PROP_NAME, newTargetFolderStr);
 		repoProps.setProperty(CURRENT_TARGET_FOLDER_PROP_NAME, newTargetFolderStr);
 
 		saveRepositoryProperties(repoProps);
+
+		deleteRenameJournal();
 	}
 
 	/**
@@ -303,6 +348,111 @@ public class FolderExporterTarget implements ICompositeDescExporterTarget {
 		saveRepositoryProperties(repoProps);
 	}
 
+	/**
+	 * Return true if and only if the content of the last target folder can be
+	 * renamed into the current target folder instead of being copied. It is
+	 * the case when both folders are stored under the location of the target
+	 * parent container (no linked folder to another file system) and when no
+	 * copy process has left a temporary directory behind.
+	 * 
+	 * @return true if and only if the content of the last target folder can
+	 *         be renamed into the current target folder.
+	 */
+	public boolean canRenameLastTargetFolderContent() {
+		if (getTemporaryFolder().exists()) {
+			return false; // a copy process must be finished first
+		}
+
+		try {
+			IContainer lastTargetFolder = getLastTargetFolder();
+			if (lastTargetFolder == null) {
+				return false;
+			}
+
+			IPath parentLocation = _targetParentContainer.getLocation();
+			IPath lastLocation = lastTargetFolder.getLocation();
+			IPath currentLocation = getTargetFolder().getLocation();
+			if ((parentLocation == null) || (lastLocation == null) || (currentLocation == null)) {
+				return false;
+			}
+
+			return parentLocation.isPrefixOf(lastLocation) && parentLocation.isPrefixOf(currentLocation);
+		} catch (CoreException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Save the rename journal and flag the target folder change process as
+	 * started in rename mode. The journal is saved before the flag so that a
+	 * flagged process can always be replayed.
+	 * 
+	 * @param journal
+	 *            the ordered entries of the rename process
+	 */
+	public void startTargetRenameProcess(List<String> journal) {
+		Properties journalProps = new Properties();
+		for (int i = 0; i < journal.size(); i++) {
+			journalProps.setProperty(RENAME_JOURNAL_ENTRY_PROP_NAME + i, journal.get(i));
+		}
+		journalProps.setProperty(RENAME_JOURNAL_SIZE_PROP_NAME, Integer.toString(journal.size()));
+		getRenameJournalFile().saveProperties(journalProps, "Generated by FolderExporterTarget.");
+
+		Properties repoProps = loadRepoProperties();
+		repoProps.setProperty(CHANGE_TARGET_FOLDER_PROCESS_PHASE1_PROP_NAME, Boolean.toString(false));
+		repoProps.setProperty(CHANGE_TARGET_FOLDER_PROCESS_MODE_PROP_NAME, RENAME_PROCESS_MODE);
+		saveRepositoryProperties(repoProps);
+	}
+
+	/**
+	 * Return true if and only if a target folder change process has been
+	 * started in rename mode and has not been finished.
+	 * 
+	 * @return true if and only if a target folder change process has been
+	 *         started in rename mode and has not been finished.
+	 */
+	public boolean targetFolderRenameProcessStarted() {
+		Properties repoProps = loadRepoProperties();
+		return RENAME_PROCESS_MODE.equals(repoProps.getProperty(CHANGE_TARGET_FOLDER_PROCESS_MODE_PROP_NAME));
+	}
+
+	/**
+	 * Return the ordered entries of the rename journal saved by
+	 * {@link #startTargetRenameProcess(List)}.
+	 * 
+	 * @return the ordered entries of the rename journal.
+	 */
+	public List<String> loadRenameJournal() {
+		Properties journalProps = getRenameJournalFile().loadProperties();
+		int size = Integer.parseInt(journalProps.getProperty(RENAME_JOURNAL_SIZE_PROP_NAME, "0"));
+
+		List<String> journal = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			String entry = journalProps.getProperty(RENAME_JOURNAL_ENTRY_PROP_NAME + i);
+			if (entry != null) {
+				journal.add(entry);
+			}
+		}
+		return journal;
+	}
+
+	private PropertyFile getRenameJournalFile() {
+		return new PropertyFile(getGlobalRepoFolder().getFile(RENAME_JOURNAL_FILE_NAME));
+	}
+
+	private void deleteRenameJournal() {
+		IFile journalFile = getGlobalRepoFolder().getFile(RENAME_JOURNAL_FILE_NAME);
+		if (journalFile.exists()) {
+			try {
+				journalFile.delete(true, View.getDefaultMonitor());
+			} catch (CoreException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+		}
+	}
+
 	/**
 	 * Return the temporary directory. Note that it might not be created (never
 	 * return null).
@@ -30,10 +30,10 @@ import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
-import org.eclipse.core.runtime.Path;
 
 import fede.workspace.eclipse.composition.CompositeBuildingContext;
 import fede.workspace.eclipse.composition.copy.exporter.FolderExportedContent;
+import fede.workspace.eclipse.composition.copy.exporter.PathPool;
 import fr.imag.adele.cadse.core.CadseException;
 import java.util.UUID;
 import fr.imag.adele.cadse.core.LogicalWorkspace;
@@ -98,7 +98,7 @@ public class FolderTargetContent extends FolderExportedContent implements ITarge
 	}
 
 	public Item addedBy() {
-		return _model.getItem(_addedItemId);
+		return (_addedItemId == null) ? null : _model.getItem(_addedItemId);
 	}
 
 	public boolean lastOpIsAdd() {
@@ -114,11 +114,11 @@ public class FolderTargetContent extends FolderExportedContent implements ITarge
 	}
 
 	public Item removedBy() {
-		return _model.getItem(_removedItemId);
+		return (_removedItemId == null) ? null : _model.getItem(_removedItemId);
 	}
 
 	public Item updatedBy() {
-		return _model.getItem(_updatedItemId);
+		return (_updatedItemId == null) ? null : _model.getItem(_updatedItemId);
 	}
 
 	public void setModel(LogicalWorkspace model) {
@@ -193,17 +193,17 @@ public class FolderTargetContent extends FolderExportedContent implements ITarge
 
 	public void setAddedBy(Item item) {
 		flagAdded();
-		_addedItemId = item.getId();
+		_addedItemId = (item == null) ? null : item.getId();
 	}
 
 	public void setRemovedBy(Item item) {
 		flagRemoved();
-		_removedItemId = item.getId();
+		_removedItemId = (item == null) ? null : item.getId();
 	}
 
 	public void setUpdatedBy(Item item) {
 		flagUpdated();
-		_updatedItemId = item.getId();
+		_updatedItemId = (item == null) ? null : item.getId();
 	}
 
 	private void writeObject(ObjectOutputStream out) throws IOException {
@@ -213,7 +213,7 @@ public class FolderTargetContent extends FolderExportedContent implements ITarge
 
 	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
 		in.defaultReadObject();
-		_folderPath = Path.fromPortableString((String) in.readObject());
+		_folderPath = PathPool.fromPortableString((String) in.readObject());
 	}
 
 	public String getTarget() {
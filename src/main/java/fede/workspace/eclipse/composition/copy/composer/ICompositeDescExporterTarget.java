@@ -18,20 +18,34 @@
  *
  * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
  */
-package fede.workspace.eclipse.composition.copy.composer;
-
-import fr.imag.adele.cadse.core.Item;
-import fr.imag.adele.cadse.core.build.IExporterTarget;
-
-public interface ICompositeDescExporterTarget extends IExporterTarget {
-
-	/**
-	 * Return the composite item related to the composer 
-	 * which instantiated this exporter target.
-	 * 
-	 * @return the composite item related to the composer 
-	 *         which instantiated this exporter target.
-	 */
-	public Item getCompositeItem();
-	
-}
+package fede.workspace.eclipse.composition.copy.composer;
+
+import fr.imag.adele.cadse.core.Item;
+import fr.imag.adele.cadse.core.build.IExporterTarget;
+
+public interface ICompositeDescExporterTarget extends IExporterTarget {
+
+	/**
+	 * Return the composite item related to the composer 
+	 * which instantiated this exporter target.
+	 * 
+	 * @return the composite item related to the composer 
+	 *         which instantiated this exporter target.
+	 */
+	public Item getCompositeItem();
+
+	/**
+	 * Return the type of the composer which instantiated this exporter target.
+	 * 
+	 * @return the type of the composer.
+	 */
+	public String getComposerType();
+
+	/**
+	 * Return the name of the composer which instantiated this exporter target.
+	 * 
+	 * @return the name of the composer.
+	 */
+	public String getComposerName();
+	
+}
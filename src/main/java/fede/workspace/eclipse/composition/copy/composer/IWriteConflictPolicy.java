@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fede.workspace.eclipse.composition.copy.composer;
+
+import java.util.List;
+
+import org.eclipse.core.runtime.IPath;
+
+import fede.workspace.eclipse.composition.copy.exporter.FileExportedContent;
+
+/**
+ * Precedence policy used by composers when several components export a file
+ * to the same path of a target folder.
+ * 
+ * @author Thomas
+ * 
+ */
+public interface IWriteConflictPolicy {
+
+	/**
+	 * Return the file content which must be copied to the specified path.
+	 * 
+	 * @param targetFolder
+	 *            the target folder of the file
+	 * @param path
+	 *            the path relative to the target folder
+	 * @param candidates
+	 *            the file contents exported to this path by at least two
+	 *            different components, in the order of their exportation
+	 * @return one of the candidates.
+	 */
+	public FileExportedContent chooseWinner(String targetFolder, IPath path, List<FileExportedContent> candidates);
+
+}
@@ -23,7 +23,8 @@ package fede.workspace.eclipse.composition.copy.composer;
 import java.util.List;
 
 import org.eclipse.core.resources.IFolder;
-import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.Path;
 import org.eclipse.jdt.core.IClasspathEntry;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.JavaCore;
@@ -56,20 +57,34 @@ public class JavaClassesCopyComposer extends JavaCopyComposer {
 	protected void postCompose(IBuildingContext context, List<IExportedContent> listExportedContent,
 			IExporterTarget target) {
 		super.postCompose(context, listExportedContent, target);
+		if (isDryRun()) {
+			return;
+		}
 		try {
 			IJavaProject javaProject = JavaProjectManager.getJavaProject(getItem());
-			IFolder f = javaProject.getProject().getFolder(getTargetPath());
+			IResource f = javaProject.getProject().getFolder(getTargetPath());
+			if (isArchiveMode()) {
+				f = javaProject.getProject().getFile(new Path(getTargetPath().toPortableString() + getArchiveExtension()));
+			}
 			IFolder fSources = javaProject.getProject().getFolder(_srcPath);
 			IClasspathEntry ce = JavaCore.newLibraryEntry(f.getFullPath(), fSources.exists() ? fSources.getFullPath()
 					: null, null, true);
 
-			JavaProjectManager.addProjectClasspath(javaProject, ce, null, false);
+			// the classpath is changed only if the library entry changes
+			ClasspathUpdater.beginBatch(javaProject);
+			try {
+				ClasspathUpdater.setEntry(javaProject, ce, null);
+				if (isArchiveMode()) {
+					// the archive replaces the target folder
+					ClasspathUpdater.removeEntry(javaProject, javaProject.getProject().getFolder(getTargetPath())
+							.getFullPath(), null);
+				}
+			} finally {
+				ClasspathUpdater.endBatch(javaProject, null);
+			}
 		} catch (JavaModelException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
-		} catch (CoreException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
 		}
 	}
 
@@ -22,8 +22,15 @@ package fede.workspace.eclipse.composition.copy.composer;
 
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Path;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaModelException;
 
+import fede.workspace.eclipse.composition.copy.exporter.ExportCache;
+import fede.workspace.eclipse.java.JavaProjectManager;
+import fr.imag.adele.cadse.core.CadseException;
 import fr.imag.adele.cadse.core.Item;
+import fr.imag.adele.cadse.core.build.Composer;
+import fr.imag.adele.cadse.core.build.IBuildingContext;
 import fr.imag.adele.cadse.core.content.ContentItem;
 
 public class JavaCopyComposer extends CopyIntoFolderComposer {
@@ -43,4 +50,37 @@ public class JavaCopyComposer extends CopyIntoFolderComposer {
 		return new Path(_targetPath);
 	}
 
+	/**
+	 * Run the compositions of the specified composers of a composite item.
+	 * The classpath updates of all the composers are applied with one change
+	 * of the raw classpath of the composite project, and the components are
+	 * exported once per exporter type (see {@link ExportCache}).
+	 * 
+	 * @param context
+	 *            the building context
+	 * @param composers
+	 *            composers of the same composite item
+	 * @throws CadseException
+	 *             if a composition fails
+	 * @throws JavaModelException
+	 *             if the classpath cannot be set
+	 */
+	public static void compose(IBuildingContext context, Composer... composers) throws CadseException,
+			JavaModelException {
+		if (composers.length == 0) {
+			return;
+		}
+		IJavaProject javaProject = JavaProjectManager.getJavaProject(composers[0].getItem());
+		ClasspathUpdater.beginBatch(javaProject);
+		ExportCache.beginBuild();
+		try {
+			for (Composer composer : composers) {
+				composer.compose(context);
+			}
+		} finally {
+			ExportCache.endBuild();
+			ClasspathUpdater.endBatch(javaProject, null);
+		}
+	}
+
 }
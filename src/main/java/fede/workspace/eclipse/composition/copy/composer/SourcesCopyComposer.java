@@ -23,7 +23,6 @@ package fede.workspace.eclipse.composition.copy.composer;
 import java.util.List;
 
 import org.eclipse.core.resources.IFolder;
-import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.jdt.core.IClasspathEntry;
 import org.eclipse.jdt.core.IJavaProject;
@@ -56,6 +55,9 @@ public class SourcesCopyComposer extends JavaCopyComposer {
 	@Override
 	protected void postCompose(IBuildingContext context, List<IExportedContent> listExportedContent, IExporterTarget target) {
 		super.postCompose(context, listExportedContent, target);
+		if (isDryRun()) {
+			return;
+		}
 		
 		if (createSourceEntry) {
 			try {
@@ -64,13 +66,11 @@ public class SourcesCopyComposer extends JavaCopyComposer {
 				IPath path = fSources.getFullPath();
 				IClasspathEntry ce = JavaCore.newSourceEntry(path , new IPath[] {}, new IPath[] {}, null);
 				
-				JavaProjectManager.addProjectClasspath(javaProject, ce, null,false);
+				// the classpath is changed only if the source entry changes
+				ClasspathUpdater.setEntry(javaProject, ce, null);
 			} catch (JavaModelException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
-			} catch (CoreException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
 			}
 		}
 		
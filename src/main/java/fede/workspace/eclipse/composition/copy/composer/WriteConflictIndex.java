@@ -0,0 +1,565 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fede.workspace.eclipse.composition.copy.composer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+
+import fede.workspace.eclipse.composition.copy.exporter.FileExportedContent;
+import fede.workspace.eclipse.composition.copy.exporter.FolderExportedContent;
+import fr.imag.adele.cadse.core.Item;
+import fr.imag.adele.cadse.core.build.IExportedContent;
+
+/**
+ * Index of the files exported to the same path of a target folder, built from
+ * the merged trees before any copy.
+ * 
+ * A path exported by several components is a write conflict : the winner is
+ * chosen by a {@link IWriteConflictPolicy} and the files of the other
+ * components are neither copied nor recorded. A file exported by the same
+ * component under several exporter types with the same source file is
+ * shared : it is copied once and recorded in each repository.
+ * 
+ * The owner recorded in the repositories by a previous build is a candidate
+ * too, exported before the current files, so that the policy is applied
+ * across builds. The repository entries left by the losers are stale : they
+ * are removed by {@link #removeStaleRecords()} without touching the target
+ * folder.
+ * 
+ * @author Thomas
+ * 
+ */
+public class WriteConflictIndex {
+
+	/**
+	 * The last exported file wins (it was the file left in the target folder
+	 * before the conflicts were detected).
+	 */
+	public static final IWriteConflictPolicy	LAST_EXPORTED	= new LastExportedPolicy();
+
+	/**
+	 * The first exported file wins.
+	 */
+	public static final IWriteConflictPolicy	FIRST_EXPORTED	= new FirstExportedPolicy();
+
+	/**
+	 * The file of the item with the smallest display name (then identifier)
+	 * wins, whatever the exportation order is.
+	 */
+	public static final IWriteConflictPolicy	ITEM_NAME		= new ItemNamePolicy();
+
+	private static class LastExportedPolicy implements IWriteConflictPolicy {
+		public FileExportedContent chooseWinner(String targetFolder, IPath path, List<FileExportedContent> candidates) {
+			return candidates.get(candidates.size() - 1);
+		}
+	}
+
+	private static class FirstExportedPolicy implements IWriteConflictPolicy {
+		public FileExportedContent chooseWinner(String targetFolder, IPath path, List<FileExportedContent> candidates) {
+			return candidates.get(0);
+		}
+	}
+
+	private static class ItemNamePolicy implements IWriteConflictPolicy {
+		public FileExportedContent chooseWinner(String targetFolder, IPath path, List<FileExportedContent> candidates) {
+			FileExportedContent winner = null;
+			for (FileExportedContent candidate : candidates) {
+				if ((winner == null) || (compare(candidate.getItem(), winner.getItem()) < 0)) {
+					winner = candidate;
+				}
+			}
+			return winner;
+		}
+	}
+
+	/**
+	 * A write conflict on one path of a target folder.
+	 */
+	public static class WriteConflict {
+
+		private final String					_targetFolder;
+
+		private final IPath						_path;
+
+		private final FileExportedContent		_winner;
+
+		private final List<FileExportedContent>	_losers;
+
+		WriteConflict(String targetFolder, IPath path, FileExportedContent winner, List<FileExportedContent> losers) {
+			this._targetFolder = targetFolder;
+			this._path = path;
+			this._winner = winner;
+			this._losers = losers;
+		}
+
+		public String getTargetFolder() {
+			return _targetFolder;
+		}
+
+		public IPath getPath() {
+			return _path;
+		}
+
+		public FileExportedContent getWinner() {
+			return _winner;
+		}
+
+		public List<FileExportedContent> getLosers() {
+			return _losers;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for (FileExportedContent loser : _losers) {
+				if (sb.length() != 0) {
+					sb.append(", ");
+				}
+				sb.append(loser.getItemDisplayName());
+			}
+			return _targetFolder + "/" + _path.toPortableString() + " : " + _winner.getItemDisplayName()
+					+ " wins over " + sb;
+		}
+	}
+
+	private final IWriteConflictPolicy	_policy;
+
+	private final Set<IExportedContent>	_sharedFiles;
+
+	private final Set<IExportedContent>	_losers;
+
+	private final List<WriteConflict>	_conflicts		= new ArrayList<WriteConflict>();
+
+	/**
+	 * The folders which contain a path exported several times.
+	 */
+	private final Set<IPath>			_contestedFolders	= new HashSet<IPath>();
+
+	/**
+	 * The target of the composer, null if the repositories are not looked up.
+	 */
+	private FolderExporterTarget		_target;
+
+	/**
+	 * The composite item, null if the repositories are not looked up.
+	 */
+	private Item						_composite;
+
+	/**
+	 * The repositories by exporter type.
+	 */
+	private final Map<String, IRepository>	_repositories	= new LinkedHashMap<String, IRepository>();
+
+	/**
+	 * The target containers by target folder.
+	 */
+	private final Map<String, IContainer>	_containers		= new HashMap<String, IContainer>();
+
+	/**
+	 * The files standing for the owners recorded by a previous build.
+	 */
+	private final Set<FileExportedContent>	_recorded		= Collections
+																	.newSetFromMap(new IdentityHashMap<FileExportedContent, Boolean>());
+
+	/**
+	 * The repository entries which may have been left by the losers.
+	 */
+	private final List<StaleRecord>			_staleRecords	= new ArrayList<StaleRecord>();
+
+	/**
+	 * The repository entry of a path written by a loser of a write conflict.
+	 */
+	private static class StaleRecord {
+
+		private final IRepository	_repository;
+
+		private final String		_targetFolder;
+
+		private final IPath			_path;
+
+		private final Item			_loser;
+
+		StaleRecord(IRepository repository, String targetFolder, IPath path, Item loser) {
+			this._repository = repository;
+			this._targetFolder = targetFolder;
+			this._path = path;
+			this._loser = loser;
+		}
+	}
+
+	/**
+	 * Build the index of the specified merged trees, without the owners
+	 * recorded by the previous builds.
+	 * 
+	 * @param targetFolders
+	 *            the merged trees by target folder
+	 * @param policy
+	 *            the policy used to solve the write conflicts
+	 */
+	public WriteConflictIndex(Map<String, FolderExportedContent> targetFolders, IWriteConflictPolicy policy) {
+		this._policy = policy;
+		this._sharedFiles = Collections.newSetFromMap(new IdentityHashMap<IExportedContent, Boolean>());
+		this._losers = Collections.newSetFromMap(new IdentityHashMap<IExportedContent, Boolean>());
+		build(targetFolders);
+	}
+
+	/**
+	 * Build the index of the specified merged trees and of the owners
+	 * recorded in the repositories of the specified target.
+	 * 
+	 * @param targetFolders
+	 *            the merged trees by target folder
+	 * @param policy
+	 *            the policy used to solve the write conflicts
+	 * @param target
+	 *            the target of the composer
+	 * @param exporterTypes
+	 *            the exporter types of the composer
+	 * @throws CoreException
+	 *             if a repository or a target folder cannot be found
+	 */
+	public WriteConflictIndex(Map<String, FolderExportedContent> targetFolders, IWriteConflictPolicy policy,
+			FolderExporterTarget target, String... exporterTypes) throws CoreException {
+		this._policy = policy;
+		this._sharedFiles = Collections.newSetFromMap(new IdentityHashMap<IExportedContent, Boolean>());
+		this._losers = Collections.newSetFromMap(new IdentityHashMap<IExportedContent, Boolean>());
+		this._target = target;
+		this._composite = target.getCompositeItem();
+		for (String exporterType : exporterTypes) {
+			_repositories.put(exporterType, target.getRepository(exporterType));
+		}
+		for (String targetFolder : targetFolders.keySet()) {
+			_containers.put(targetFolder, target.getTargetFolder(targetFolder, false));
+		}
+		build(targetFolders);
+	}
+
+	private void build(Map<String, FolderExportedContent> targetFolders) {
+		for (Map.Entry<String, FolderExportedContent> e : targetFolders.entrySet()) {
+			Map<IPath, List<FileExportedContent>> filesByPath = new LinkedHashMap<IPath, List<FileExportedContent>>();
+			collectFiles(e.getValue(), filesByPath);
+
+			for (Map.Entry<IPath, List<FileExportedContent>> files : filesByPath.entrySet()) {
+				FileExportedContent recorded = getRecordedOwner(e.getKey(), files.getKey(), files.getValue());
+				if (recorded != null) {
+					// the recorded owner has exported its file before
+					files.getValue().add(0, recorded);
+				}
+				if (files.getValue().size() > 1) {
+					index(e.getKey(), files.getKey(), files.getValue());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return a file standing for the component which owns the specified path
+	 * in the repositories and does not export it in the current trees, or
+	 * null if there is no such component.
+	 * 
+	 * The entries of the losers are removed (see
+	 * {@link #removeStaleRecords()}) : an exporter named by the entry of its
+	 * own type owns the path and the other repositories are not looked up.
+	 * This is the case of most updated and removed files, so only the added
+	 * files usually cost more than one lookup.
+	 */
+	private FileExportedContent getRecordedOwner(String targetFolder, IPath path, List<FileExportedContent> files) {
+		if (_repositories.isEmpty()) {
+			return null;
+		}
+		Map<String, ITargetContent> records = new HashMap<String, ITargetContent>();
+		for (FileExportedContent file : files) {
+			String exporterType = file.getExporterType();
+			IRepository repository = _repositories.get(exporterType);
+			if ((repository == null) || records.containsKey(exporterType)) {
+				continue;
+			}
+			ITargetContent record = getRecord(repository, targetFolder, path);
+			records.put(exporterType, record);
+			if ((record != null) && file.getItem().equals(getLastModifier(record))) {
+				return null;
+			}
+		}
+
+		for (Map.Entry<String, IRepository> e : _repositories.entrySet()) {
+			ITargetContent record = records.containsKey(e.getKey()) ? records.get(e.getKey()) : getRecord(e
+					.getValue(), targetFolder, path);
+			if (record == null) {
+				continue;
+			}
+			Item owner = getLastModifier(record);
+			if ((owner == null) || !_composite.containsComponent(owner.getId()) || exports(files, owner)) {
+				continue;
+			}
+			FileExportedContent recorded = new FileExportedContent(path, _containers.get(targetFolder).getFile(path),
+					owner, e.getKey(), false, true, false);
+			_recorded.add(recorded);
+			return recorded;
+		}
+		return null;
+	}
+
+	/**
+	 * Return a file standing for the component which owns the path of the
+	 * specified file in the repositories, if it is not the component of the
+	 * file. It is used when the files are copied while they are exported,
+	 * without merged trees.
+	 * 
+	 * @param targetFolder
+	 *            the target folder of the file
+	 * @param file
+	 *            an exported file
+	 * @return the recorded owner of the path or null.
+	 * @throws CoreException
+	 *             if the target folder cannot be found
+	 */
+	public FileExportedContent getRecordedOwner(String targetFolder, FileExportedContent file) throws CoreException {
+		if (_target == null) {
+			return null;
+		}
+		if (!_containers.containsKey(targetFolder)) {
+			_containers.put(targetFolder, _target.getTargetFolder(targetFolder, false));
+		}
+		return getRecordedOwner(targetFolder, file.getPath(), Collections.singletonList(file));
+	}
+
+	/**
+	 * Remember that the specified file lost a write conflict : its repository
+	 * entry is removed by {@link #removeStaleRecords()} if it still names the
+	 * component of the file. It is used when the files are copied while they
+	 * are exported, without merged trees.
+	 * 
+	 * @param targetFolder
+	 *            the target folder of the file
+	 * @param loser
+	 *            a file which lost a write conflict
+	 */
+	public void addStaleRecord(String targetFolder, FileExportedContent loser) {
+		addStaleRecord(targetFolder, loser.getPath(), loser.getItem(), loser.getExporterType());
+	}
+
+	/**
+	 * Return the entry of the specified repository which represents an
+	 * existing file of the specified target folder, or null.
+	 */
+	private static ITargetContent getRecord(IRepository repository, String targetFolder, IPath path) {
+		ITargetContent targetContent = repository.getTargetContent(path, false);
+		if ((targetContent == null) || targetContent.lastOpIsRemove()) {
+			return null;
+		}
+		String target = targetContent.getTarget();
+		if (target == null) {
+			target = FolderExportedContent.DEFAULT_TARGET;
+		}
+		return target.equals(targetFolder) ? targetContent : null;
+	}
+
+	/**
+	 * Return the item which has added or updated the file represented by the
+	 * specified entry last, as {@link IRepository#getLastModifierItem(IPath, boolean)}
+	 * without reading the entry again.
+	 */
+	private static Item getLastModifier(ITargetContent record) {
+		return record.lastOpIsAdd() ? record.addedBy() : record.updatedBy();
+	}
+
+	/**
+	 * Return true if one of the specified files, added, updated or removed, is
+	 * exported by the specified item.
+	 */
+	private static boolean exports(List<FileExportedContent> files, Item item) {
+		for (FileExportedContent file : files) {
+			if (file.getItem().equals(item)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void collectFiles(FolderExportedContent folder, Map<IPath, List<FileExportedContent>> filesByPath) {
+		List<IExportedContent> members = folder.getMembers();
+		for (int i = 0; i < members.size(); i++) {
+			IExportedContent content = members.get(i);
+			if (content instanceof FolderExportedContent) {
+				collectFiles((FolderExportedContent) content, filesByPath);
+			} else if (content instanceof FileExportedContent) {
+				FileExportedContent fileContent = (FileExportedContent) content;
+				List<FileExportedContent> files = filesByPath.get(fileContent.getPath());
+				if (files == null) {
+					files = new ArrayList<FileExportedContent>(1);
+					filesByPath.put(fileContent.getPath(), files);
+				}
+				files.add(fileContent);
+			}
+		}
+	}
+
+	private void index(String targetFolder, IPath path, List<FileExportedContent> files) {
+		for (int i = 1; i < path.segmentCount(); i++) {
+			_contestedFolders.add(path.uptoSegment(i));
+		}
+
+		List<FileExportedContent> candidates = new ArrayList<FileExportedContent>();
+		for (FileExportedContent file : files) {
+			if (!file.isRemoved()) {
+				candidates.add(file);
+			}
+		}
+		if (candidates.isEmpty()) {
+			return;
+		}
+
+		FileExportedContent winner = candidates.get(0);
+		boolean conflict = false;
+		for (FileExportedContent candidate : candidates) {
+			if (!candidate.getItem().equals(winner.getItem())) {
+				conflict = true;
+				break;
+			}
+		}
+		if (conflict) {
+			winner = _policy.chooseWinner(targetFolder, path, candidates);
+		}
+
+		List<FileExportedContent> losers = new ArrayList<FileExportedContent>();
+		FileExportedContent copied = null;
+		for (FileExportedContent file : files) {
+			if (!file.getItem().equals(winner.getItem())) {
+				// the entry written by a loser in a previous build is stale
+				addStaleRecord(targetFolder, path, file.getItem(), file.getExporterType());
+				if (!file.isRemoved()) {
+					losers.add(file);
+				}
+				if (!_recorded.contains(file)) {
+					// a removal by another component must not delete the
+					// winner
+					_losers.add(file);
+				}
+				continue;
+			}
+			if (file.isRemoved()) {
+				continue;
+			}
+			if ((copied != null) && copied.getFile().equals(file.getFile())
+					&& !copied.getExporterType().equals(file.getExporterType())) {
+				_sharedFiles.add(file);
+			} else if (copied == null) {
+				copied = file;
+			}
+		}
+
+		if (!losers.isEmpty()) {
+			_conflicts.add(new WriteConflict(targetFolder, path, winner, losers));
+		}
+	}
+
+	/**
+	 * Remember the path written by a loser : its entry is removed if it still
+	 * names the loser once the files are copied.
+	 */
+	private void addStaleRecord(String targetFolder, IPath path, Item loser, String exporterType) {
+		IRepository repository = _repositories.get(exporterType);
+		if (repository != null) {
+			_staleRecords.add(new StaleRecord(repository, targetFolder, path, loser));
+		}
+	}
+
+	/**
+	 * Remove from the repositories the entries left by the losers of the
+	 * write conflicts. An entry updated by the winner with the same exporter
+	 * type is kept. The target folders are not modified.
+	 */
+	public void removeStaleRecords() {
+		for (StaleRecord stale : _staleRecords) {
+			ITargetContent record = getRecord(stale._repository, stale._targetFolder, stale._path);
+			if ((record != null) && stale._loser.equals(getLastModifier(record))) {
+				stale._repository.remove(record);
+			}
+		}
+	}
+
+	/**
+	 * Return true if the specified content has the same source file and the
+	 * same target path than a content of another exporter type : it must not
+	 * be copied again but it must be recorded in the repository.
+	 * 
+	 * @param content
+	 *            an exported content
+	 * @return true if the specified content must not be copied.
+	 */
+	public boolean isShared(IExportedContent content) {
+		return _sharedFiles.contains(content);
+	}
+
+	/**
+	 * Return true if a path inside the specified folder is exported several
+	 * times, by several components or by several exporter types.
+	 * 
+	 * @param folderPath
+	 *            the path of a folder relative to the target folder
+	 * @return true if the folder contains a conflicting or shared file.
+	 */
+	public boolean isContested(IPath folderPath) {
+		return _contestedFolders.contains(folderPath);
+	}
+
+	/**
+	 * Return true if the specified content lost a write conflict : it must be
+	 * neither copied nor recorded in the repository.
+	 * 
+	 * @param content
+	 *            an exported content
+	 * @return true if the specified content lost a write conflict.
+	 */
+	public boolean isLoser(IExportedContent content) {
+		return _losers.contains(content);
+	}
+
+	/**
+	 * Return all the write conflicts detected in the merged trees.
+	 * 
+	 * @return all the write conflicts detected in the merged trees.
+	 */
+	public List<WriteConflict> getConflicts() {
+		return Collections.unmodifiableList(_conflicts);
+	}
+
+	private static int compare(Item item1, Item item2) {
+		String name1 = String.valueOf(item1.getDisplayName());
+		String name2 = String.valueOf(item2.getDisplayName());
+		int cmp = name1.compareTo(name2);
+		if (cmp != 0) {
+			return cmp;
+		}
+		return item1.getId().compareTo(item2.getId());
+	}
+}
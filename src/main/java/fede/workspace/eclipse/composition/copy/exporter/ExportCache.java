@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fede.workspace.eclipse.composition.copy.exporter;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceProxy;
+import org.eclipse.core.resources.IResourceProxyVisitor;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+
+import fr.imag.adele.cadse.core.build.IExportedContent;
+
+/**
+ * Cache of the exported contents computed during a build. When a component is
+ * included in several composites, its project is scanned once per exporter
+ * type. The cache keeps a copy of each tree, which is never modified, and
+ * every consumer receives its own copy of it (see
+ * {@link FolderExportedContent#copy()}).
+ * 
+ * Only the complete contents of the components, exported without resource
+ * delta, are cached : each composite builder has its own delta of a
+ * component project. The cache is active between {@link #beginBuild()} and
+ * {@link #endBuild()}, which are called for each workspace build between
+ * {@link #installBuildListener()} and {@link #uninstallBuildListener()} (see
+ * {@link Activator}), so the cached contents are shared by all the composites
+ * built by a build.
+ * 
+ * A component may be rebuilt between the compositions of two composites of
+ * the same build. Each content is cached with the stamp of its project (see
+ * {@link #getContentStamp(IProject)}) and is only given back while the
+ * project has the same stamp.
+ * 
+ * @author Thomas
+ * 
+ */
+public class ExportCache {
+
+	/**
+	 * Key of an exported content.
+	 */
+	private static class Key {
+
+		private final UUID		_itemId;
+
+		private final String	_exporterType;
+
+		Key(UUID itemId, String exporterType) {
+			this._itemId = itemId;
+			this._exporterType = exporterType;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) o;
+			return _itemId.equals(key._itemId) && _exporterType.equals(key._exporterType);
+		}
+
+		@Override
+		public int hashCode() {
+			return _itemId.hashCode() * 31 + _exporterType.hashCode();
+		}
+	}
+
+	/**
+	 * A cached content and the stamp of the project it was exported from.
+	 */
+	private static class Entry {
+
+		private final long					_stamp;
+
+		private final FolderExportedContent	_content;
+
+		Entry(long stamp, FolderExportedContent content) {
+			this._stamp = stamp;
+			this._content = content;
+		}
+	}
+
+	/**
+	 * Computes the stamp of a project from the names and the modification
+	 * stamps of its members.
+	 */
+	private static class StampVisitor implements IResourceProxyVisitor {
+
+		private long	_stamp;
+
+		public boolean visit(IResourceProxy proxy) {
+			_stamp = (_stamp * 31 + proxy.getName().hashCode()) * 31 + proxy.getModificationStamp();
+			return true;
+		}
+	}
+
+	/**
+	 * Opens the cache from the beginning to the end of each workspace build.
+	 */
+	private static class BuildListener implements IResourceChangeListener {
+
+		/**
+		 * True if the cache has been opened by this listener, which may be
+		 * installed during a build.
+		 */
+		private boolean	_started;
+
+		public void resourceChanged(IResourceChangeEvent event) {
+			if (event.getType() == IResourceChangeEvent.PRE_BUILD) {
+				if (!_started) {
+					_started = true;
+					beginBuild();
+				}
+			} else if ((event.getType() == IResourceChangeEvent.POST_BUILD) && _started) {
+				_started = false;
+				endBuild();
+			}
+		}
+	}
+
+	private static int									_depth;
+
+	private static BuildListener						_buildListener;
+
+	private static final Map<Key, Entry>					_contents	= new HashMap<Key, Entry>();
+
+	private ExportCache() {
+		// static methods only
+	}
+
+	/**
+	 * Open the cache for the duration of each workspace build. It is called
+	 * when the plug-in is started. Calling it several times has no effect.
+	 */
+	public static synchronized void installBuildListener() {
+		if (_buildListener == null) {
+			_buildListener = new BuildListener();
+			ResourcesPlugin.getWorkspace().addResourceChangeListener(_buildListener,
+					IResourceChangeEvent.PRE_BUILD | IResourceChangeEvent.POST_BUILD);
+		}
+	}
+
+	/**
+	 * Stop opening the cache for each workspace build. It is called when the
+	 * plug-in is stopped.
+	 */
+	public static void uninstallBuildListener() {
+		BuildListener buildListener;
+		synchronized (ExportCache.class) {
+			buildListener = _buildListener;
+			_buildListener = null;
+		}
+		if (buildListener == null) {
+			return;
+		}
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(buildListener);
+		if (buildListener._started) {
+			buildListener._started = false;
+			endBuild();
+		}
+	}
+
+	/**
+	 * Start caching the exported contents. Calls can be nested : the cache is
+	 * cleared at the end of the outermost build.
+	 */
+	public static synchronized void beginBuild() {
+		_depth++;
+	}
+
+	/**
+	 * Return true if the exported contents are cached.
+	 * 
+	 * @return true if a build is started.
+	 */
+	public static synchronized boolean isStarted() {
+		return _depth > 0;
+	}
+
+	/**
+	 * Stop caching the exported contents and clear the cache at the end of the
+	 * outermost build. The modified {@link ExportSnapshot}s are then saved.
+	 */
+	public static void endBuild() {
+		synchronized (ExportCache.class) {
+			if ((_depth == 0) || (--_depth > 0)) {
+				return;
+			}
+			_contents.clear();
+		}
+		ExportSnapshot.saveAll();
+	}
+
+	/**
+	 * Forget the cached contents of the specified item, whose project has
+	 * been modified during the build (by a composer of this item).
+	 * 
+	 * @param itemId
+	 *            identifier of a component
+	 */
+	public static synchronized void invalidate(UUID itemId) {
+		for (Iterator<Key> it = _contents.keySet().iterator(); it.hasNext();) {
+			if (it.next()._itemId.equals(itemId)) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Return the stamp of the specified project. It changes when a member of
+	 * the project is added, removed or modified, while the modification stamp
+	 * of a project only changes when the project itself is created or moved.
+	 * 
+	 * @param project
+	 *            the project of a component
+	 * @return the stamp of the project.
+	 * @throws CoreException
+	 *             if the project cannot be visited.
+	 */
+	static long getContentStamp(IProject project) throws CoreException {
+		StampVisitor visitor = new StampVisitor();
+		project.accept(visitor, IResource.NONE);
+		return visitor._stamp;
+	}
+
+	/**
+	 * Return a new tree equal to the cached complete content or null if it is
+	 * not cached or if it was cached with another stamp of the project.
+	 * 
+	 * @param itemId
+	 *            identifier of the exported component
+	 * @param exporterType
+	 *            the exporter type
+	 * @param stamp
+	 *            the current stamp of the component project
+	 * @return a tree equal to the cached exported content or null.
+	 */
+	static IExportedContent get(UUID itemId, String exporterType, long stamp) {
+		Entry entry;
+		synchronized (ExportCache.class) {
+			if (_depth == 0) {
+				return null;
+			}
+			entry = _contents.get(new Key(itemId, exporterType));
+		}
+		return ((entry == null) || (entry._stamp != stamp)) ? null : entry._content.copy();
+	}
+
+	/**
+	 * Return true if the specified complete content is cached with the
+	 * specified stamp of the project.
+	 * 
+	 * @param itemId
+	 *            identifier of the exported component
+	 * @param exporterType
+	 *            the exporter type
+	 * @param stamp
+	 *            the current stamp of the component project
+	 * @return true if the specified exported content is cached.
+	 */
+	static synchronized boolean contains(UUID itemId, String exporterType, long stamp) {
+		Entry entry = _contents.get(new Key(itemId, exporterType));
+		return (entry != null) && (entry._stamp == stamp);
+	}
+
+	/**
+	 * Cache a copy of the specified complete content if a build is started.
+	 * The content itself is not kept, so it can still be given to a consumer.
+	 * 
+	 * @param itemId
+	 *            identifier of the exported component
+	 * @param exporterType
+	 *            the exporter type
+	 * @param stamp
+	 *            the stamp of the component project before the export
+	 * @param content
+	 *            the content exported without resource delta
+	 * @return true if the exported content is cached.
+	 */
+	static synchronized boolean put(UUID itemId, String exporterType, long stamp, IExportedContent content) {
+		if ((_depth == 0) || !(content instanceof FolderExportedContent)) {
+			return false;
+		}
+		_contents.put(new Key(itemId, exporterType), new Entry(stamp, ((FolderExportedContent) content).copy()));
+		return true;
+	}
+}
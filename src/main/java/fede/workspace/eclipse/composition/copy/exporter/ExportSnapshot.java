@@ -0,0 +1,677 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fede.workspace.eclipse.composition.copy.exporter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+
+import fr.imag.adele.cadse.core.Item;
+import fr.imag.adele.cadse.core.build.IExportedContent;
+import fr.imag.adele.cadse.core.build.IExporterTarget;
+import fede.workspace.eclipse.composition.copy.composer.ICompositeDescExporterTarget;
+
+/**
+ * Files and folders last exported by an item to a composer, with the stamps of
+ * the exported files. The snapshots are saved under the metadata area of the
+ * workspace, so the first build after a restart, which has no resource delta,
+ * only gives the changed files to the composer instead of the whole
+ * component.
+ * 
+ * A snapshot is related to one composer of one composite : each composer
+ * consumes the resource deltas of the exported items independently.
+ * 
+ * @author Thomas
+ * 
+ */
+public class ExportSnapshot {
+
+	private static final String										PLUGIN_ID			= "fr.imag.adele.cadse.model.runtime.copycomposer";
+	private static final int										VERSION				= 1;
+	private static final String										TMP_FILE_EXTENSION	= ".tmp";
+
+	/**
+	 * Snapshots by file, kept while there is enough memory.
+	 */
+	private static final Map<File, SoftReference<ExportSnapshot>>	_snapshots	= new HashMap<File, SoftReference<ExportSnapshot>>();
+
+	/**
+	 * Snapshots modified since they were last saved.
+	 */
+	private static final Set<ExportSnapshot>						_dirty		= new HashSet<ExportSnapshot>();
+
+	/**
+	 * Snapshots with changes which are not committed yet.
+	 */
+	private static final Set<ExportSnapshot>						_staged		= new HashSet<ExportSnapshot>();
+
+	/**
+	 * An exported file or folder.
+	 */
+	private static class Entry {
+
+		/**
+		 * Project relative path of the exported file, null for a folder.
+		 */
+		final String	_sourcePath;
+
+		final long		_modificationStamp;
+
+		final long		_localTimeStamp;
+
+		Entry(String sourcePath, long modificationStamp, long localTimeStamp) {
+			this._sourcePath = sourcePath;
+			this._modificationStamp = modificationStamp;
+			this._localTimeStamp = localTimeStamp;
+		}
+
+		boolean isFolder() {
+			return _sourcePath == null;
+		}
+	}
+
+	private static final Entry										FOLDER		= new Entry(null, 0, 0);
+
+	/**
+	 * A change of the entries which is recorded when the composition is
+	 * committed : either all the entries, the changed entries or, if both are
+	 * null, an invalidation.
+	 */
+	private static class Change {
+
+		final Map<IPath, Entry>	_replacement;
+
+		final List<IPath>		_paths;
+
+		final List<Entry>		_recorded;
+
+		Change(Map<IPath, Entry> replacement, List<IPath> paths, List<Entry> recorded) {
+			this._replacement = replacement;
+			this._paths = paths;
+			this._recorded = recorded;
+		}
+	}
+
+	private final File												_file;
+
+	private final Map<IPath, Entry>									_entries	= new HashMap<IPath, Entry>();
+
+	/**
+	 * True if the entries are the contents of the last export.
+	 */
+	private boolean													_valid;
+
+	private final List<Change>										_changes	= new ArrayList<Change>();
+
+	private ExportSnapshot(File file) {
+		this._file = file;
+	}
+
+	/**
+	 * Return the snapshot of the contents exported by the specified item to the
+	 * composer of the specified target, or null if the target is not related
+	 * to a composer of a composite.
+	 * 
+	 * @param target
+	 *            the exporter target of the composer
+	 * @param item
+	 *            the exported item
+	 * @param exporterType
+	 *            the exporter type
+	 * @return the snapshot of the contents exported to the composer or null.
+	 */
+	public static synchronized ExportSnapshot get(IExporterTarget target, Item item, String exporterType) {
+		File folder = getFolder(target);
+		if (folder == null) {
+			return null;
+		}
+
+		File file = new File(folder, toFileName(item.getId().toString() + "-" + exporterType));
+		SoftReference<ExportSnapshot> ref = _snapshots.get(file);
+		ExportSnapshot snapshot = ref == null ? null : ref.get();
+		if (snapshot == null) {
+			snapshot = new ExportSnapshot(file);
+			snapshot.load();
+			_snapshots.put(file, new SoftReference<ExportSnapshot>(snapshot));
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Return the folder of the snapshots of the composer related to the
+	 * specified target or null if the target is not related to a composer of
+	 * a composite.
+	 */
+	private static File getFolder(IExporterTarget target) {
+		if (!(target instanceof ICompositeDescExporterTarget)) {
+			return null;
+		}
+		ICompositeDescExporterTarget compositeTarget = (ICompositeDescExporterTarget) target;
+		if ((compositeTarget.getCompositeItem() == null) || (compositeTarget.getComposerType() == null)
+				|| (compositeTarget.getComposerName() == null)) {
+			return null;
+		}
+		return ResourcesPlugin.getWorkspace().getRoot().getLocation().append(".metadata").append(".plugins")
+				.append(PLUGIN_ID).append("snapshots").append(compositeTarget.getCompositeItem().getId().toString())
+				.append(toFileName(compositeTarget.getComposerType() + "-" + compositeTarget.getComposerName()))
+				.toFile();
+	}
+
+	/**
+	 * Record the changes of the snapshots of the composer related to the
+	 * specified target. The composer calls it once it has successfully copied
+	 * the exported contents.
+	 * 
+	 * @param target
+	 *            the exporter target of the composer
+	 */
+	public static void commit(IExporterTarget target) {
+		for (ExportSnapshot snapshot : unstage(target)) {
+			snapshot.commit();
+		}
+	}
+
+	/**
+	 * Forget the changes of the snapshots of the composer related to the
+	 * specified target, after a dry-run or a failed composition.
+	 * 
+	 * @param target
+	 *            the exporter target of the composer
+	 * @param invalidate
+	 *            true if the exported contents may have been partly copied :
+	 *            the changed snapshots are invalidated
+	 */
+	public static void discard(IExporterTarget target, boolean invalidate) {
+		for (ExportSnapshot snapshot : unstage(target)) {
+			synchronized (snapshot) {
+				snapshot._changes.clear();
+				if (invalidate) {
+					snapshot.invalidate();
+				}
+			}
+		}
+	}
+
+	private static synchronized List<ExportSnapshot> unstage(IExporterTarget target) {
+		List<ExportSnapshot> snapshots = new ArrayList<ExportSnapshot>();
+		File folder = getFolder(target);
+		if (folder == null) {
+			return snapshots;
+		}
+		for (Iterator<ExportSnapshot> it = _staged.iterator(); it.hasNext();) {
+			ExportSnapshot snapshot = it.next();
+			if (folder.equals(snapshot._file.getParentFile())) {
+				snapshots.add(snapshot);
+				it.remove();
+			}
+		}
+		return snapshots;
+	}
+
+	/**
+	 * Save all the modified snapshots.
+	 */
+	public static void saveAll() {
+		List<ExportSnapshot> dirty;
+		synchronized (ExportSnapshot.class) {
+			dirty = new ArrayList<ExportSnapshot>(_dirty);
+			_dirty.clear();
+		}
+		for (int i = 0; i < dirty.size(); i++) {
+			dirty.get(i).save();
+		}
+	}
+
+	private static String toFileName(String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			sb.append(Character.isLetterOrDigit(c) || (c == '-') || (c == '.') ? c : '_');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Return true if this snapshot contains the contents of the last export.
+	 * 
+	 * @return true if the last exported contents are known.
+	 */
+	public synchronized boolean isValid() {
+		return _valid;
+	}
+
+	/**
+	 * Return the changes between this snapshot and the specified tree, the
+	 * complete contents of the item, then stage the tree to be recorded in
+	 * this snapshot.
+	 * The unchanged files are not part of the returned tree, the files whose
+	 * stamps differ are updated, the files and folders which are not in this
+	 * snapshot are added and the ones which are not in the tree any more are
+	 * removed.
+	 * 
+	 * @param project
+	 *            the project of the exported item
+	 * @param tree
+	 *            all the contents exported by the item
+	 * @return the changes since the last export or null if they cannot be
+	 *         computed.
+	 */
+	public synchronized FolderExportedContent diff(IProject project, FolderExportedContent tree) {
+		if (!_valid) {
+			return null;
+		}
+		List<IPath> paths = new ArrayList<IPath>();
+		List<Entry> recorded = new ArrayList<Entry>();
+		if (!collect(tree, paths, recorded)) {
+			return null;
+		}
+		Map<IPath, Entry> entries = toEntries(paths, recorded);
+
+		FolderExportedContent changes = new FolderExportedContent(tree.getItem(), tree.getExporterType());
+		Set<IPath> exported = new HashSet<IPath>();
+		diff(tree, changes, exported);
+
+		// removed contents, each folder before its members
+		List<IPath> removed = new ArrayList<IPath>();
+		for (IPath path : _entries.keySet()) {
+			if (!entries.containsKey(path)) {
+				removed.add(path);
+			}
+		}
+		Collections.sort(removed, new Comparator<IPath>() {
+			public int compare(IPath p1, IPath p2) {
+				return p1.segmentCount() - p2.segmentCount();
+			}
+		});
+		for (int i = 0; i < removed.size(); i++) {
+			IPath path = removed.get(i);
+			Entry entry = _entries.get(path);
+			if (entry.isFolder()) {
+				export(changes, new FolderExportedContent(tree.getItem(), tree.getExporterType(), path, false,
+						false, true), exported);
+			} else {
+				IFile file = project.getFile(PathPool.fromPortableString(entry._sourcePath));
+				export(changes, new FileExportedContent(path, file, tree.getItem(), tree.getExporterType(), false,
+						false, true), exported);
+			}
+		}
+
+		stage(new Change(entries, null, null));
+		return changes;
+	}
+
+	private void diff(FolderExportedContent folder, FolderExportedContent changes, Set<IPath> exported) {
+		List<IExportedContent> members = folder.getMembers();
+		for (int i = 0; i < members.size(); i++) {
+			IExportedContent content = members.get(i);
+			if (content instanceof FolderExportedContent) {
+				FolderExportedContent child = (FolderExportedContent) content;
+				if (!_entries.containsKey(child.getPath())) {
+					export(changes, new FolderExportedContent(child.getItem(), child.getExporterType(), child
+							.getPath(), true, false, false), exported);
+				}
+				diff(child, changes, exported);
+			} else if (content instanceof FileExportedContent) {
+				FileExportedContent file = (FileExportedContent) content;
+				Entry entry = _entries.get(file.getPath());
+				if ((entry == null) || entry.isFolder()) {
+					export(changes, new FileExportedContent(file.getPath(), file.getFile(), file.getItem(), file
+							.getExporterType(), true, false, false), exported);
+				} else if ((entry._modificationStamp != file.getFile().getModificationStamp())
+						|| (entry._localTimeStamp != file.getFile().getLocalTimeStamp())) {
+					export(changes, new FileExportedContent(file.getPath(), file.getFile(), file.getItem(), file
+							.getExporterType(), false, true, false), exported);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add the specified content to the changes, after its parent folders
+	 * which have not been added yet, flagged as updated.
+	 */
+	private static void export(FolderExportedContent changes, IDeltaSetter content, Set<IPath> exported) {
+		IPath path = ((IPathable) content).getPath();
+		for (int i = 1; i < path.segmentCount(); i++) {
+			IPath parentPath = PathPool.uptoSegment(path, i);
+			if (exported.add(parentPath)) {
+				changes.export(new FolderExportedContent(changes.getItem(), changes.getExporterType(), parentPath,
+						false, true, false));
+			}
+		}
+		exported.add(path);
+		changes.export(content);
+	}
+
+	/**
+	 * Stage the specified exported contents to be recorded in this snapshot.
+	 * 
+	 * @param tree
+	 *            the exported contents
+	 * @param complete
+	 *            true if the tree contains all the contents exported by the
+	 *            item, false if it only contains the changes since the last
+	 *            export
+	 */
+	public synchronized void update(FolderExportedContent tree, boolean complete) {
+		List<IPath> paths = new ArrayList<IPath>();
+		List<Entry> recorded = new ArrayList<Entry>();
+		if (!collect(tree, paths, recorded)) {
+			stage(new Change(null, null, null));
+		} else if (complete) {
+			stage(new Change(toEntries(paths, recorded), null, null));
+		} else {
+			stage(new Change(null, paths, recorded));
+		}
+	}
+
+	/**
+	 * Return a sink which records the contents it receives in this snapshot
+	 * before giving them to the specified sink. The contents are staged when
+	 * {@link Recorder#stage()} is called.
+	 * 
+	 * @param sink
+	 *            the sink which receives the exported contents
+	 * @param complete
+	 *            true if all the contents exported by the item are given to
+	 *            the sink, false if only the changes since the last export are
+	 *            given
+	 * @return a recording sink.
+	 */
+	public Recorder record(IExportSink sink, boolean complete) {
+		return new Recorder(sink, complete);
+	}
+
+	/**
+	 * A sink which records the received contents in the snapshot.
+	 */
+	public class Recorder implements IExportSink {
+
+		private final IExportSink		_sink;
+
+		private final boolean			_complete;
+
+		private final List<IPath>		_paths		= new ArrayList<IPath>();
+
+		private final List<Entry>		_recorded	= new ArrayList<Entry>();
+
+		private boolean					_unsupported;
+
+		Recorder(IExportSink sink, boolean complete) {
+			this._sink = sink;
+			this._complete = complete;
+		}
+
+		public void export(IDeltaSetter content, String targetFolder) throws CoreException {
+			if (targetFolder != null) {
+				_unsupported = true;
+			}
+			if (content instanceof FolderExportedContent) {
+				FolderExportedContent folder = (FolderExportedContent) content;
+				_paths.add(folder.getPath());
+				_recorded.add(folder.isRemoved() ? null : FOLDER);
+			} else if (content instanceof FileExportedContent) {
+				FileExportedContent file = (FileExportedContent) content;
+				_paths.add(file.getPath());
+				_recorded.add(file.isRemoved() ? null : toEntry(file.getFile()));
+			}
+			_sink.export(content, targetFolder);
+		}
+
+		/**
+		 * Stage the received contents to be recorded in the snapshot.
+		 */
+		public void stage() {
+			synchronized (ExportSnapshot.this) {
+				if (_unsupported) {
+					ExportSnapshot.this.stage(new Change(null, null, null));
+				} else if (_complete) {
+					ExportSnapshot.this.stage(new Change(toEntries(_paths, _recorded), null, null));
+				} else {
+					ExportSnapshot.this.stage(new Change(null, _paths, _recorded));
+				}
+			}
+		}
+	}
+
+	private void stage(Change change) {
+		_changes.add(change);
+		synchronized (ExportSnapshot.class) {
+			_staged.add(this);
+		}
+	}
+
+	/**
+	 * Record the staged changes.
+	 */
+	private synchronized void commit() {
+		for (int i = 0; i < _changes.size(); i++) {
+			Change change = _changes.get(i);
+			if (change._replacement != null) {
+				replace(change._replacement);
+			} else if ((change._paths == null) || !_valid) {
+				invalidate();
+			} else {
+				for (int j = 0; j < change._paths.size(); j++) {
+					apply(_entries, change._paths.get(j), change._recorded.get(j));
+				}
+				changed();
+			}
+		}
+		_changes.clear();
+	}
+
+	/**
+	 * Return the entries of a complete export.
+	 */
+	private static Map<IPath, Entry> toEntries(List<IPath> paths, List<Entry> recorded) {
+		Map<IPath, Entry> entries = new HashMap<IPath, Entry>();
+		for (int i = 0; i < paths.size(); i++) {
+			apply(entries, paths.get(i), recorded.get(i));
+		}
+		return entries;
+	}
+
+	/**
+	 * Add the contents of the specified tree to the paths and entries, an
+	 * entry being null for a removed content.
+	 * 
+	 * @return false if the tree contains target folders, which are not
+	 *         recorded in the snapshots.
+	 */
+	private static boolean collect(FolderExportedContent folder, List<IPath> paths, List<Entry> recorded) {
+		List<IExportedContent> members = folder.getMembers();
+		for (int i = 0; i < members.size(); i++) {
+			IExportedContent content = members.get(i);
+			if (content instanceof FolderExportedContent) {
+				FolderExportedContent child = (FolderExportedContent) content;
+				if (child.getTargetFolder() != null) {
+					return false;
+				}
+				paths.add(child.getPath());
+				recorded.add(child.isRemoved() ? null : FOLDER);
+				if (!collect(child, paths, recorded)) {
+					return false;
+				}
+			} else if (content instanceof FileExportedContent) {
+				FileExportedContent file = (FileExportedContent) content;
+				paths.add(file.getPath());
+				recorded.add(file.isRemoved() ? null : toEntry(file.getFile()));
+			}
+		}
+		return true;
+	}
+
+	private static Entry toEntry(IFile file) {
+		return new Entry(file.getProjectRelativePath().toPortableString(), file.getModificationStamp(), file
+				.getLocalTimeStamp());
+	}
+
+	/**
+	 * Put the entry of the specified path, or remove the path and its members
+	 * if the entry is null.
+	 */
+	private static void apply(Map<IPath, Entry> entries, IPath path, Entry entry) {
+		if (entry != null) {
+			entries.put(PathPool.intern(path), entry);
+			return;
+		}
+		Entry removed = entries.remove(path);
+		if ((removed != null) && removed.isFolder()) {
+			for (Iterator<IPath> it = entries.keySet().iterator(); it.hasNext();) {
+				if (path.isPrefixOf(it.next())) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	private void replace(Map<IPath, Entry> entries) {
+		if (entries != _entries) {
+			_entries.clear();
+			_entries.putAll(entries);
+		}
+		_valid = true;
+		changed();
+	}
+
+	private void invalidate() {
+		_entries.clear();
+		_valid = false;
+		changed();
+	}
+
+	/**
+	 * Save this snapshot at the end of the build, or now if no build is
+	 * started.
+	 */
+	private void changed() {
+		if (ExportCache.isStarted()) {
+			synchronized (ExportSnapshot.class) {
+				_dirty.add(this);
+			}
+		} else {
+			save();
+		}
+	}
+
+	private synchronized void load() {
+		if (!_file.exists()) {
+			return;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(_file)));
+			if (in.readInt() != VERSION) {
+				return;
+			}
+			int size = in.readInt();
+			for (int i = 0; i < size; i++) {
+				IPath path = PathPool.fromPortableString(in.readUTF());
+				if (in.readBoolean()) {
+					_entries.put(path, FOLDER);
+				} else {
+					_entries.put(path, new Entry(in.readUTF(), in.readLong(), in.readLong()));
+				}
+			}
+			_valid = true;
+		} catch (IOException e) {
+			log("Cannot load the export snapshot " + _file, e);
+			_entries.clear();
+		} finally {
+			close(in);
+		}
+	}
+
+	private synchronized void save() {
+		if (!_valid) {
+			_file.delete();
+			return;
+		}
+		File tmpFile = new File(_file.getPath() + TMP_FILE_EXTENSION);
+		DataOutputStream out = null;
+		try {
+			_file.getParentFile().mkdirs();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			out.writeInt(VERSION);
+			out.writeInt(_entries.size());
+			for (Map.Entry<IPath, Entry> e : _entries.entrySet()) {
+				out.writeUTF(e.getKey().toPortableString());
+				Entry entry = e.getValue();
+				out.writeBoolean(entry.isFolder());
+				if (!entry.isFolder()) {
+					out.writeUTF(entry._sourcePath);
+					out.writeLong(entry._modificationStamp);
+					out.writeLong(entry._localTimeStamp);
+				}
+			}
+			out.close();
+			out = null;
+			if (!tmpFile.renameTo(_file)) {
+				_file.delete();
+				tmpFile.renameTo(_file);
+			}
+		} catch (IOException e) {
+			log("Cannot save the export snapshot " + _file, e);
+			tmpFile.delete();
+		} finally {
+			close(out);
+		}
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				log("Cannot close an export snapshot", e);
+			}
+		}
+	}
+
+	private static void log(String message, Throwable cause) {
+		ResourcesPlugin.getPlugin().getLog().log(new Status(IStatus.ERROR, PLUGIN_ID, message, cause));
+	}
+}
@@ -115,7 +115,8 @@ public class FileExportedContent implements IDeltaSetter, IPathable {
 		return _relativePath;
 	}
 
-	public int hashcode() {
+	@Override
+	public int hashCode() {
 		return _relativePath.hashCode() + _item.hashCode() + _exporterType.hashCode();
 	}
 
@@ -195,6 +196,18 @@ public class FileExportedContent implements IDeltaSetter, IPathable {
 		return DeltaContentUtil.toString(this) + " " + getPath().lastSegment();
 	}
 
+	/**
+	 * Return a copy of this file content.
+	 * 
+	 * @return a copy of this file content.
+	 */
+	public FileExportedContent copy() {
+		FileExportedContent ret = new FileExportedContent(_relativePath, _file, _item, _exporterType, _added,
+				_updated, _removed);
+		ret.link = link;
+		return ret;
+	}
+
 	public void setLink(Link l) {
 		this.link = l;
 	}
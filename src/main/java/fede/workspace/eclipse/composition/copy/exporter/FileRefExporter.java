@@ -21,8 +21,6 @@
 package fede.workspace.eclipse.composition.copy.exporter;
 
 import java.util.Properties;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
@@ -66,7 +64,7 @@ public class FileRefExporter extends ProjectExporter {
 	public final static String	FILE_REF_EXPORTER_TYPE			= "ref-files";
 	private Variable			path;
 	private Variable			pattern;
-	private Matcher				matcher;
+	private PathPattern			matcher;
 
 	/**
 	 * Create a FileRefExporter.
@@ -128,6 +126,34 @@ public class FileRefExporter extends ProjectExporter {
 	protected IExportedContent exportItem(IProject componentProject, IResourceDelta projectDelta,
 			IProgressMonitor monitor, String exporterType, IExporterTarget target, boolean fullExport)
 			throws CoreException {
+		FolderExportedContent folderContent = new FolderExportedContent(getItem(), exporterType);
+		exportItem(componentProject, projectDelta, monitor, exporterType, fullExport, folderContent);
+		return folderContent;
+	}
+
+	/**
+	 * Gives to the sink all files included in the specified directory that
+	 * have been added, removed or updated since the last build, while the
+	 * directory is scanned.
+	 * 
+	 * @param componentProject
+	 *            the project which contain the component content.
+	 * @param projectDelta
+	 *            resource delta of componentProject since the last build
+	 * @param monitor
+	 *            the monitor of this build process
+	 * @param exporterType
+	 *            the exporter type of files and directory to export
+	 * @param fullExport
+	 *            true for a full export
+	 * @param sink
+	 *            the sink which receives the exported files and folders
+	 * @throws CoreException
+	 *             In case of error which cancel the build process
+	 */
+	@Override
+	protected void exportItem(IProject componentProject, IResourceDelta projectDelta, IProgressMonitor monitor,
+			String exporterType, boolean fullExport, IExportSink sink) throws CoreException {
 
 		/*
 		 * Verify this item is actually hosted in a Project
@@ -137,8 +163,7 @@ public class FileRefExporter extends ProjectExporter {
 		}
 
 		if (pattern != null) {
-			Pattern p = Pattern.compile(pattern.compute(ContextVariableImpl.DEFAULT, getItem()));
-			matcher = p.matcher("");
+			matcher = PathPattern.compile(pattern.compute(ContextVariableImpl.DEFAULT, getItem()));
 		} else {
 			matcher = null;
 		}
@@ -151,8 +176,6 @@ public class FileRefExporter extends ProjectExporter {
 		// Item composite = ((ICompositeDescExporterTarget)
 		// target).getCompositeItem();
 
-		FolderExportedContent folderContent = new FolderExportedContent(getItem(), exporterType);
-
 		IContainer exportedFolder = getExportedFolder();
 		IFolder lastExportedFolder = getLastExportedFolder(componentProject, exporterType);
 		if ((lastExportedFolder != null) && (!exportedFolder.equals(lastExportedFolder))) {
@@ -162,16 +185,20 @@ public class FileRefExporter extends ProjectExporter {
 			 * the old exported folder.
 			 */
 
+			// The old and the new folders must be merged, so this case is
+			// computed on trees which are given to the sink at the end.
+			FolderExportedContent folderContent = new FolderExportedContent(getItem(), exporterType);
+
 			// We scan the old directory and flag each of its file and directory
 			// as removed.
 			FolderExportedContent oldFolderContent = new FolderExportedContent(getItem(), exporterType);
-			Scanner scanner = new Scanner(oldFolderContent);
+			Scanner scanner = new Scanner(oldFolderContent, exporterType);
 			scanner.scanOlderFolder(lastExportedFolder, monitor);
 
 			// We scan the old directory delta and add all removal that have
 			// been performed.
 			FolderExportedContent oldFolderContentDiff = new FolderExportedContent(getItem(), exporterType);
-			scanner = new Scanner(oldFolderContentDiff);
+			scanner = new Scanner(oldFolderContentDiff, exporterType);
 			IResourceDelta oldFolderDelta = (projectDelta != null) ? projectDelta.findMember(lastExportedFolder
 					.getProjectRelativePath()) : null;
 			scanner.scanOlderFolder(lastExportedFolder, oldFolderDelta, monitor);
@@ -182,7 +209,7 @@ public class FileRefExporter extends ProjectExporter {
 
 			// We scan the new directory and flag each of its file and directory
 			// as added.
-			scanner = new Scanner(folderContent);
+			scanner = new Scanner(folderContent, exporterType);
 			scanner.scanNewFolder(exportedFolder, monitor);
 
 			// Merge old exported folder diff and new exported folder
@@ -192,24 +219,26 @@ public class FileRefExporter extends ProjectExporter {
 			// Update repository datas
 			setLastExportedFolder(getExportedFolder(), componentProject, exporterType);
 
+			if (sink != folderContent) {
+				replay(folderContent, sink);
+			}
+
 		} else {
 
 			/*
 			 * We scan the specified directory.
 			 */
-			Scanner scanner = new Scanner(folderContent);
+			Scanner scanner = new Scanner(sink, exporterType);
 			IResourceDelta outputDelta = (projectDelta != null) ? projectDelta.findMember(exportedFolder
 					.getProjectRelativePath()) : null;
 
 			// If no modification of the output location just skip it
 			if (!fullExport && ((projectDelta != null) && (outputDelta == null))) {
-				return folderContent;
+				return;
 			}
 
 			scanner.scan(exportedFolder, outputDelta, monitor);
 		}
-
-		return folderContent;
 	}
 
 	/**
@@ -256,7 +285,7 @@ public class FileRefExporter extends ProjectExporter {
 	 */
 	public IFolder getLastExportedFolder(IProject componentProject, String exporterType) throws CoreException {
 
-		IFolder repoFolder = getRepoFolder(componentProject, exporterType);
+		IFolder repoFolder = getRepoFolderHandle(componentProject, exporterType);
 
 		IFile repoFile = repoFolder.getFile(REPO_FILE_NAME);
 		if (!repoFile.exists()) {
@@ -293,8 +322,7 @@ public class FileRefExporter extends ProjectExporter {
 	 * @return the folder which contain the exporter repository datas.
 	 */
 	private IFolder getRepoFolder(IProject componentProject, String exporterType) throws CoreException {
-		IFolder repoFolder = componentProject.getFolder("." + FileRefExporter.class.getName()).getFolder(
-				getItem().getId().toString()).getFolder(exporterType);
+		IFolder repoFolder = getRepoFolderHandle(componentProject, exporterType);
 
 		if (!repoFolder.exists()) {
 			MappingManager.createFolder(repoFolder, View.getDefaultMonitor());
@@ -303,6 +331,32 @@ public class FileRefExporter extends ProjectExporter {
 		return repoFolder;
 	}
 
+	/**
+	 * Return the folder which contain the exporter repository datas, which
+	 * may not exist.
+	 * 
+	 * @return the folder which contain the exporter repository datas.
+	 */
+	private IFolder getRepoFolderHandle(IProject componentProject, String exporterType) {
+		return componentProject.getFolder("." + FileRefExporter.class.getName()).getFolder(
+				getItem().getId().toString()).getFolder(exporterType);
+	}
+
+	/**
+	 * The export only reads the workspace unless the exported folder has
+	 * changed since the last build : the new folder is then recorded in the
+	 * exporter repository.
+	 */
+	@Override
+	protected boolean isReadOnlyExport(IProject componentProject, String exporterType) {
+		try {
+			IFolder lastExportedFolder = getLastExportedFolder(componentProject, exporterType);
+			return (lastExportedFolder == null) || lastExportedFolder.equals(getExportedFolder());
+		} catch (CoreException e) {
+			return false;
+		}
+	}
+
 	/**
 	 * Return the folder which is exposed to the composers.
 	 * 
@@ -336,13 +390,16 @@ public class FileRefExporter extends ProjectExporter {
 	 */
 	private class Scanner implements IResourceVisitor, IResourceDeltaVisitor {
 
-		private final FolderExportedContent	_exportedContent;
+		private final IExportSink	_sink;
+
+		private final String		_exporterType;
 
-		private IContainer					_scannedFolder;
-		private IProgressMonitor			_monitor;
+		private IContainer			_scannedFolder;
+		private IProgressMonitor	_monitor;
 
-		public Scanner(FolderExportedContent exportedContentList) {
-			this._exportedContent = exportedContentList;
+		public Scanner(IExportSink sink, String exporterType) {
+			this._sink = sink;
+			this._exporterType = exporterType;
 		}
 
 		/**
@@ -486,13 +543,13 @@ public class FileRefExporter extends ProjectExporter {
 				return false;
 			}
 			if (filePath.segmentCount() == 0) {
-				return true;
+				return canMatchBelow(filePath);
 			}
 			if (!accept(filePath, outputResource)) {
 				return false;
 			}
-			_exportedContent.delete(outputResource, filePath, _monitor);
-			return FileUtil.isFolder(outputResource);
+			export(outputResource, filePath, false, false, true);
+			return FileUtil.isFolder(outputResource) && canMatchBelow(filePath);
 		}
 
 		private boolean added(IResource outputResource) throws CoreException {
@@ -501,14 +558,14 @@ public class FileRefExporter extends ProjectExporter {
 				return false;
 			}
 			if (filePath.segmentCount() == 0) {
-				return true;
+				return canMatchBelow(filePath);
 			}
 			if (!accept(filePath, outputResource)) {
 				return false;
 			}
 
-			_exportedContent.add(outputResource, filePath, _monitor);
-			return FileUtil.isFolder(outputResource);
+			export(outputResource, filePath, true, false, false);
+			return FileUtil.isFolder(outputResource) && canMatchBelow(filePath);
 		}
 
 		private boolean changed(IResource outputResource) throws CoreException {
@@ -517,14 +574,31 @@ public class FileRefExporter extends ProjectExporter {
 				return false;
 			}
 			if (filePath.segmentCount() == 0) {
-				return true;
+				return canMatchBelow(filePath);
 			}
 			if (!accept(filePath, outputResource)) {
 				return false;
 			}
 
-			_exportedContent.update(outputResource, filePath, _monitor);
-			return FileUtil.isFolder(outputResource);
+			export(outputResource, filePath, false, true, false);
+			return FileUtil.isFolder(outputResource) && canMatchBelow(filePath);
+		}
+
+		private void export(IResource outputResource, IPath filePath, boolean added, boolean updated, boolean removed)
+				throws CoreException {
+			if (outputResource.getType() == IResource.FILE) {
+				_sink.export(new FileExportedContent(filePath, (IFile) outputResource, getItem(), _exporterType,
+						added, updated, removed), null);
+			} else {
+				FolderExportedContent folder = new FolderExportedContent(getItem(), _exporterType, filePath, added,
+						updated, removed);
+				if (!updated && (matcher == null)) {
+					// the members of an added or removed folder are all added
+					// or removed
+					folder.setSubtreeSource((IContainer) outputResource);
+				}
+				_sink.export(folder, null);
+			}
 		}
 
 	}
@@ -533,9 +607,19 @@ public class FileRefExporter extends ProjectExporter {
 		if (matcher == null) {
 			return true;
 		}
-		String path = filePath.toPortableString();
-		matcher.reset(path);
-		return matcher.matches();
+		return matcher.matches(filePath);
+	}
+
+	/**
+	 * Return false if no member of the specified folder can be accepted, so
+	 * the visitors do not go down into it.
+	 * 
+	 * @param folderPath
+	 *            the path of a folder relative to the exported folder
+	 * @return false if the pattern cannot match any path below the folder.
+	 */
+	protected boolean canMatchBelow(IPath folderPath) {
+		return (matcher == null) || matcher.canMatchBelow(folderPath);
 	}
 
 	/**
@@ -21,15 +21,17 @@
 package fede.workspace.eclipse.composition.copy.exporter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
-import org.eclipse.core.runtime.Path;
 
 import fr.imag.adele.cadse.core.CadseException;
 import java.util.UUID;
@@ -44,12 +46,39 @@ import fr.imag.adele.cadse.core.build.IExportedContent;
  * @author Thomas
  * 
  */
-public class FolderExportedContent implements IDeltaSetter, IPathable {
+public class FolderExportedContent implements IDeltaSetter, IPathable, IExportSink {
 	public static final String							DEFAULT_TARGET	= ".";
 
 	protected transient final List<IExportedContent>	_exportedContentList;
 	protected transient final Map<IPath, IPathable>		_folders;
 
+	/**
+	 * Read-only view of _exportedContentList.
+	 */
+	private transient final List<IExportedContent>		_members;
+
+	/**
+	 * Index of the file members in _exportedContentList by path.
+	 */
+	private transient final Map<IPath, Integer>			_filesIdx;
+
+	/**
+	 * Index of the folder members in _exportedContentList by path.
+	 */
+	private transient final Map<IPath, Integer>			_foldersIdx;
+
+	/**
+	 * The folders from this folder to the last folder which received a
+	 * member, null if no member has been constructed yet.
+	 */
+	private transient List<FolderExportedContent>		_cursor;
+
+	/**
+	 * The source folder of a folder added or removed with all its members,
+	 * null otherwise.
+	 */
+	private transient IContainer						_subtreeSource;
+
 	protected transient Item							_item;
 
 	private String										_exporterType;
@@ -67,7 +96,10 @@ public class FolderExportedContent implements IDeltaSetter, IPathable {
 
 	protected FolderExportedContent() {
 		this._exportedContentList = new ArrayList<IExportedContent>();
+		this._members = Collections.unmodifiableList(_exportedContentList);
 		this._folders = new HashMap<IPath, IPathable>();
+		this._filesIdx = new HashMap<IPath, Integer>();
+		this._foldersIdx = new HashMap<IPath, Integer>();
 	}
 
 	/**
@@ -132,7 +164,7 @@ public class FolderExportedContent implements IDeltaSetter, IPathable {
 	}
 
 	private void addE(IExportedContent exportedContent) {
-		_exportedContentList.add(exportedContent);
+		add(exportedContent);
 		if (exportedContent instanceof IPathable) {
 			IPathable ep = (IPathable) exportedContent;
 			_folders.put(ep.getPath(), ep);
@@ -174,7 +206,8 @@ public class FolderExportedContent implements IDeltaSetter, IPathable {
 	public boolean equals(Object o) {
 		if (o instanceof FolderExportedContent) {
 			FolderExportedContent folderContent = (FolderExportedContent) o;
-			return _folderPath.equals(folderContent.getPath()) && _item.equals(folderContent.getItem())
+			return ((_folderPath == null) ? (folderContent.getPath() == null) : _folderPath.equals(folderContent
+					.getPath())) && _item.equals(folderContent.getItem())
 					&& _exporterType.equals(folderContent.getExporterType())
 					&& equals(_targetFolder, folderContent._targetFolder);
 		} else {
@@ -192,8 +225,9 @@ public class FolderExportedContent implements IDeltaSetter, IPathable {
 		return false;
 	}
 
-	public int hashcode() {
-		return _folderPath.hashCode() + _item.hashCode() + _exporterType.hashCode();
+	@Override
+	public int hashCode() {
+		return (_folderPath == null ? 0 : _folderPath.hashCode()) + _item.hashCode() + _exporterType.hashCode();
 	}
 
 	public void delete(IBuildingContext context) throws CadseException {
@@ -218,6 +252,36 @@ public class FolderExportedContent implements IDeltaSetter, IPathable {
 		return _exportedContentList.toArray(new IExportedContent[_exportedContentList.size()]);
 	}
 
+	/**
+	 * Return a read-only view of the members of this folder. Unlike
+	 * {@link #getChildren()}, no array is allocated : iterate on it by index
+	 * to avoid any allocation.
+	 * 
+	 * @return a read-only view of the members of this folder.
+	 */
+	public List<IExportedContent> getMembers() {
+		return _members;
+	}
+
+	/**
+	 * Return a read-only view of the members of the specified content, empty
+	 * if it has no member.
+	 * 
+	 * @param content
+	 *            an exported content
+	 * @return a read-only view of the members of the content.
+	 */
+	public static List<IExportedContent> membersOf(IExportedContent content) {
+		if (content instanceof FolderExportedContent) {
+			return ((FolderExportedContent) content)._members;
+		}
+		IExportedContent[] children = content.getChildren();
+		if (children == null) {
+			return Collections.emptyList();
+		}
+		return Arrays.asList(children);
+	}
+
 	public String getExporterType() {
 		return _exporterType;
 	}
@@ -243,44 +307,121 @@ public class FolderExportedContent implements IDeltaSetter, IPathable {
 	}
 
 	public void delete(IResource outputResource, IPath filePath, IProgressMonitor monitor) {
-		constructExportedContent(outputResource, filePath, new Path(""), false, false, true);
+		constructExportedContent(newContent(outputResource, filePath, false, false, true), filePath);
 	}
 
-	private void constructExportedContent(IResource outputResource, IPath filePath, IPath pathAlreadyConstructed,
-			boolean added, boolean updated, boolean removed) {
+	/**
+	 * Add the specified file or folder to this tree, with the missing folders
+	 * between this folder and the content.
+	 * 
+	 * @param content
+	 *            an exported file or folder without member
+	 */
+	public void export(IDeltaSetter content) {
+		constructExportedContent(content, ((IPathable) content).getPath());
+	}
 
-		if ((filePath.segmentCount() - pathAlreadyConstructed.segmentCount()) == 0) {
+	/**
+	 * Add the specified file or folder to this tree, or to its member
+	 * representing the specified target folder (see {@link #add(String)}).
+	 * 
+	 * @param content
+	 *            an exported file or folder without member
+	 * @param targetFolder
+	 *            the target folder of the content, null for this tree
+	 */
+	public void export(IDeltaSetter content, String targetFolder) {
+		if (targetFolder == null) {
+			export(content);
 			return;
 		}
+		for (int i = 0; i < _exportedContentList.size(); i++) {
+			IExportedContent member = _exportedContentList.get(i);
+			if ((member instanceof FolderExportedContent)
+					&& targetFolder.equals(((FolderExportedContent) member)._targetFolder)) {
+				((FolderExportedContent) member).export(content);
+				return;
+			}
+		}
+		add(targetFolder).export(content);
+	}
 
-		FolderExportedContent folderContent = null;
-		if ((outputResource.getType() == IResource.FILE)
-				&& ((filePath.segmentCount() - pathAlreadyConstructed.segmentCount()) == 1)) {
-			FileExportedContent fileContent = new FileExportedContent(filePath, (IFile) outputResource, _item,
-					_exporterType, added, updated, removed);
-			addExportedContent(fileContent);
-		} else {
-			IPath pathToConstruct = filePath.uptoSegment(pathAlreadyConstructed.segmentCount() + 1);
-			folderContent = new FolderExportedContent(_item, _exporterType, pathToConstruct, added, updated, removed);
-			addExportedContent(folderContent);
-			getFolder(pathToConstruct).constructExportedContent(outputResource, filePath, pathToConstruct, added,
-					updated, removed);
+	private IDeltaSetter newContent(IResource outputResource, IPath filePath, boolean added, boolean updated,
+			boolean removed) {
+		if (outputResource.getType() == IResource.FILE) {
+			return new FileExportedContent(filePath, (IFile) outputResource, _item, _exporterType, added, updated,
+					removed);
 		}
+		return new FolderExportedContent(_item, _exporterType, filePath, added, updated, removed);
 	}
 
-	private FolderExportedContent getFolder(IPath pathToConstruct) {
-		for (IExportedContent exportedContent : _exportedContentList) {
-			if (exportedContent instanceof FolderExportedContent) {
-				FolderExportedContent folderContent = (FolderExportedContent) exportedContent;
-				if (folderContent.getPath().equals(pathToConstruct)) {
-					return folderContent;
-				}
+	/**
+	 * Add the specified content to this tree, with the missing folders
+	 * between this folder and the content. The resources are usually visited
+	 * in depth-first order, so the folders which received the last member are
+	 * kept in a cursor : only the folders which are not shared with the
+	 * previous member are looked up or created.
+	 * 
+	 * @param content
+	 *            an exported file or folder without member
+	 * @param filePath
+	 *            the path of the content relative to this folder
+	 */
+	private void constructExportedContent(IDeltaSetter content, IPath filePath) {
+		int segmentCount = filePath.segmentCount();
+		if (segmentCount == 0) {
+			return;
+		}
+
+		if (_cursor == null) {
+			_cursor = new ArrayList<FolderExportedContent>();
+			_cursor.add(this);
+		}
+
+		// keep the cursor folders which contain the content
+		int depth = 0;
+		if (_cursor.size() > 1) {
+			depth = Math.min(_cursor.get(_cursor.size() - 1).getPath().matchingFirstSegments(filePath),
+					segmentCount - 1);
+			while (_cursor.size() > depth + 1) {
+				_cursor.remove(_cursor.size() - 1);
 			}
 		}
-		return null;
+
+		// go down to the parent of the content
+		FolderExportedContent parent = _cursor.get(depth);
+		for (depth++; depth < segmentCount; depth++) {
+			IPath pathToConstruct = PathPool.uptoSegment(filePath, depth);
+			FolderExportedContent folderContent = parent.getFolder(pathToConstruct);
+			if (folderContent == null) {
+				folderContent = new FolderExportedContent(_item, _exporterType, pathToConstruct, content.isAdded(),
+						content.isUpdated(), content.isRemoved());
+				parent.addExportedContent(folderContent);
+			}
+			_cursor.add(folderContent);
+			parent = folderContent;
+		}
+
+		if (parent.addExportedContent(content)) {
+			// a folder of the cursor may have been replaced
+			_cursor = null;
+		}
 	}
 
-	private void addExportedContent(IExportedContent exportedContent) {
+	private FolderExportedContent getFolder(IPath pathToConstruct) {
+		Integer idx = _foldersIdx.get(pathToConstruct);
+		return idx == null ? null : (FolderExportedContent) _exportedContentList.get(idx.intValue());
+	}
+
+	/**
+	 * Add the specified content to the members of this folder or merge it
+	 * with the member which has the same path.
+	 * 
+	 * @param exportedContent
+	 *            a member
+	 * @return true if an existing member has been replaced.
+	 */
+	private boolean addExportedContent(IExportedContent exportedContent) {
 		int idx = childrenIdxOf(exportedContent);
 		if (idx != -1) {
 			IExportedContent existingContent = _exportedContentList.get(idx);
@@ -304,59 +445,74 @@ public class FolderExportedContent implements IDeltaSetter, IPathable {
 						contentToSet = DeltaContentUtil.choose(deltaCont, existDeltaCont, false, true, false);
 					}
 				} else {
-					return; // do nothing
+					return false; // do nothing
 				}
 			}
 
 			if (contentToSet != null) {
 				_exportedContentList.set(idx, contentToSet);
+				return true;
 			} else {
 				throw new IllegalStateException("exportedContent must not be null and "
 						+ "be instance of FolderExportedContent or FileExportedContent.");
 			}
 		} else {
-			_exportedContentList.add(exportedContent);
+			add(exportedContent);
 		}
+		return false;
 	}
 
+	/**
+	 * Return the index of the member which has the same kind (file or folder)
+	 * and the same path than the specified content, -1 if there is none.
+	 * 
+	 * @param exportedContent
+	 *            an exported content
+	 * @return the index of the member with the same kind and path or -1.
+	 */
 	private int childrenIdxOf(IExportedContent exportedContent) {
-		int idx = _exportedContentList.indexOf(exportedContent);
-		if (idx != -1) {
-			return idx;
+		Map<IPath, Integer> index = getIndex(exportedContent);
+		if (index == null) {
+			return -1;
 		}
-
-		for (int i = 0; i < _exportedContentList.size(); i++) {
-			IExportedContent content = _exportedContentList.get(i);
-			if (samePath(content, exportedContent)) {
-				return i;
-			}
-		}
-
-		return -1;
+		Integer idx = index.get(((IPathable) exportedContent).getPath());
+		return idx == null ? -1 : idx.intValue();
 	}
 
-	private boolean samePath(IExportedContent content, IExportedContent exportedContent) {
-		if ((content instanceof FolderExportedContent) && (exportedContent instanceof FolderExportedContent)) {
-			return ((FolderExportedContent) content).getPath().equals(
-					((FolderExportedContent) exportedContent).getPath());
+	/**
+	 * Return the index of the members of the same kind than the specified
+	 * content or null if the content is not indexed.
+	 * 
+	 * @param exportedContent
+	 *            an exported content
+	 * @return the index of the members of the same kind or null.
+	 */
+	private Map<IPath, Integer> getIndex(IExportedContent exportedContent) {
+		if (exportedContent instanceof FolderExportedContent) {
+			return ((FolderExportedContent) exportedContent).getPath() == null ? null : _foldersIdx;
 		}
-
-		if ((content instanceof FileExportedContent) && (exportedContent instanceof FileExportedContent)) {
-			return ((FileExportedContent) content).getPath().equals(((FileExportedContent) exportedContent).getPath());
+		if (exportedContent instanceof FileExportedContent) {
+			return _filesIdx;
 		}
-
-		return false;
+		return null;
 	}
 
 	public void add(IResource outputResource, IPath filePath, IProgressMonitor monitor) {
-		constructExportedContent(outputResource, filePath, new Path(""), true, false, false);
+		constructExportedContent(newContent(outputResource, filePath, true, false, false), filePath);
 	}
 
 	public void update(IResource outputResource, IPath filePath, IProgressMonitor monitor) {
-		constructExportedContent(outputResource, filePath, new Path(""), false, true, false);
+		constructExportedContent(newContent(outputResource, filePath, false, true, false), filePath);
 	}
 
 	public void add(IExportedContent exportedContent) {
+		Map<IPath, Integer> index = getIndex(exportedContent);
+		if (index != null) {
+			IPath path = ((IPathable) exportedContent).getPath();
+			if (!index.containsKey(path)) {
+				index.put(path, _exportedContentList.size());
+			}
+		}
 		_exportedContentList.add(exportedContent);
 	}
 
@@ -425,6 +581,52 @@ public class FolderExportedContent implements IDeltaSetter, IPathable {
 		return ret;
 	}
 
+	/**
+	 * Return a copy of this tree : the folders and files are copied, the
+	 * represented resources and items are shared.
+	 * 
+	 * @return a copy of this tree.
+	 */
+	public FolderExportedContent copy() {
+		FolderExportedContent ret = new FolderExportedContent(_item, _exporterType, _folderPath);
+		ret.setFlags(_added, _updated, _removed);
+		ret._targetFolder = _targetFolder;
+		ret._subtreeSource = _subtreeSource;
+		ret.link = link;
+		for (IExportedContent ec : _exportedContentList) {
+			if (ec instanceof FolderExportedContent) {
+				ret.add(((FolderExportedContent) ec).copy());
+			} else if (ec instanceof FileExportedContent) {
+				ret.add(((FileExportedContent) ec).copy());
+			} else {
+				ret.add(ec);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Flag this folder as added or removed with its whole subtree : its
+	 * members are all the members of the source folder, with the same flag.
+	 * The composers can then copy or delete the folder at once.
+	 * 
+	 * @param sourceFolder
+	 *            the exported folder, null to clear the flag
+	 */
+	public void setSubtreeSource(IContainer sourceFolder) {
+		_subtreeSource = sourceFolder;
+	}
+
+	/**
+	 * Return the source folder if this folder is added or removed with its
+	 * whole subtree, null otherwise.
+	 * 
+	 * @return the source folder of a whole subtree or null.
+	 */
+	public IContainer getSubtreeSource() {
+		return (_added || _removed) ? _subtreeSource : null;
+	}
+
 	public boolean isTargetFolder() {
 		for (IExportedContent ec : _exportedContentList) {
 			if (ec instanceof FolderExportedContent && ((FolderExportedContent) ec)._targetFolder != null) {
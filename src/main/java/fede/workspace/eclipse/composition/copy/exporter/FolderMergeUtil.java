@@ -18,70 +18,203 @@
  *
  * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
  */
-package fede.workspace.eclipse.composition.copy.exporter;
-
-import fr.imag.adele.cadse.core.build.IExportedContent;
-
-/**
- * This class groups a collection of methods to merge different folder delta trees.
- * 
- * @author Thomas
- *
- */
-public class FolderMergeUtil {
-	
-	/**
-	 * Merge the two tree into the exportedFolder argument.
-	 * 
-	 * @param exportedFolder
-	 * @param folderToMerge
-	 */
-	public static void merge(FolderExportedContent exportedFolder, FolderExportedContent folderToMerge) {
-		if (folderToMerge == null)
-			return;
-		
-		FolderExportedContent current =  exportedFolder;
-		FolderExportedContent currentToMerge =  folderToMerge;
-		IExportedContent[] childrens = current.getChildren();
-		IExportedContent[] childrensToMerge = currentToMerge.getChildren();
-		for (IExportedContent contentToMerge : childrensToMerge) {
-			IExportedContent content = find(contentToMerge, childrens);
-			if (content == null)
-				current.add(contentToMerge);
-			else {
-				merge(content, contentToMerge);
-			}
-		}
-		
-		// change flags of the folder node
-		mergeFlags(current, currentToMerge);
-	}
-
-	private static void mergeFlags(IDeltaSetter current, IDeltaSetter currentToMerge) {
-		boolean added = current.isAdded() && currentToMerge.isAdded();
-		boolean updated = DeltaContentUtil.atLeastOneUpdate(current, currentToMerge) || 
-		                  (DeltaContentUtil.atLeastOneAdd(current, currentToMerge) && 
-		                		  DeltaContentUtil.atLeastOneRemove(current, currentToMerge));
-		boolean removed = current.isRemoved() && currentToMerge.isRemoved();
-		DeltaContentUtil.modify(current, added, updated, removed);
-	}
-	
-	@SuppressWarnings("unused")
-	private static void merge(FileExportedContent exportedFile, FileExportedContent fileToMerge) {
-		mergeFlags(exportedFile, fileToMerge);
-	}
-
-	private static void merge(IExportedContent content, IExportedContent contentToMerge) {
-		// do nothing for non compatible contents
-		throw new IllegalArgumentException("content and contentToMerge must be of same type (FileExportedContent or FolderExportedContent).");
-	}
-
-	private static IExportedContent find(IExportedContent contentToMerge, IExportedContent[] childrens) {
-		for (IExportedContent content : childrens) {
-			if (contentToMerge.equals(content))
-				return content;
-		}
-		
-		return null;
-	}
-}
+package fede.workspace.eclipse.composition.copy.exporter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.eclipse.core.resources.IContainer;
+
+import fr.imag.adele.cadse.core.build.IExportedContent;
+
+/**
+ * This class groups a collection of methods to merge different folder delta trees.
+ * 
+ * @author Thomas
+ *
+ */
+public class FolderMergeUtil {
+
+	/**
+	 * Minimum number of merges run concurrently by mergeAll.
+	 */
+	private static final int	PARALLEL_MERGE_THRESHOLD	= 4;
+	
+	/**
+	 * Merge the two tree into the exportedFolder argument.
+	 * 
+	 * The members are joined through a hash map on their identity (kind, path, item
+	 * and exporter type), so merging two folders costs O(n + m) and only the folders
+	 * present in both trees are merged recursively. A file and a folder with the
+	 * same path are kept side by side : one is removed and the other one added.
+	 * 
+	 * @param exportedFolder
+	 * @param folderToMerge
+	 */
+	public static void merge(FolderExportedContent exportedFolder, FolderExportedContent folderToMerge) {
+		if (folderToMerge == null)
+			return;
+		
+		FolderExportedContent current =  exportedFolder;
+		FolderExportedContent currentToMerge =  folderToMerge;
+		List<IExportedContent> childrensToMerge = currentToMerge._exportedContentList;
+		if (!childrensToMerge.isEmpty()) {
+			List<IExportedContent> childrens = current._exportedContentList;
+			Map<IExportedContent, IExportedContent> index = new HashMap<IExportedContent, IExportedContent>(
+					childrens.size() * 2);
+			for (IExportedContent content : childrens) {
+				if (!index.containsKey(content))
+					index.put(content, content);
+			}
+			
+			// the added members are not indexed : the members of a folder are distinct
+			for (int i = 0, size = childrensToMerge.size(); i < size; i++) {
+				IExportedContent contentToMerge = childrensToMerge.get(i);
+				IExportedContent content = index.get(contentToMerge);
+				if (content == null)
+					current.add(contentToMerge);
+				else
+					mergeMember(content, contentToMerge);
+			}
+		}
+		
+		// change flags of the folder node
+		IContainer subtreeSource = current.getSubtreeSource();
+		mergeFlags(current, currentToMerge);
+		if ((subtreeSource != null)
+				&& ((currentToMerge.getSubtreeSource() == null) || !DeltaContentUtil.sameDeltaFlags(current, currentToMerge)))
+			// the members of the folder are no longer a whole subtree
+			current.setSubtreeSource(null);
+	}
+
+	/**
+	 * Merge each list of trees into its first tree, as successive calls to
+	 * {@link #merge(FolderExportedContent, FolderExportedContent)} would do.
+	 * 
+	 * The trees are reduced pairwise : at each round the trees 2i and 2i+1 of
+	 * every list are merged concurrently, for all the lists at once. Merging
+	 * the right tree into the left one keeps the order of the members and the
+	 * merge of the flags is associative, so the result does not depend on the
+	 * scheduling and is equal to the sequential merge.
+	 * 
+	 * @param trees
+	 *            the trees to merge by key, in merge order
+	 * @param result
+	 *            the map which receives the merged tree of each key
+	 */
+	public static <K> void mergeAll(Map<K, List<FolderExportedContent>> trees, Map<K, FolderExportedContent> result) {
+		List<List<FolderExportedContent>> lists = new ArrayList<List<FolderExportedContent>>();
+		int count = 0;
+		for (Map.Entry<K, List<FolderExportedContent>> e : trees.entrySet()) {
+			if (e.getValue().isEmpty())
+				continue;
+			lists.add(new ArrayList<FolderExportedContent>(e.getValue()));
+			count += e.getValue().size() - 1;
+		}
+
+		if ((count >= PARALLEL_MERGE_THRESHOLD) && (Runtime.getRuntime().availableProcessors() > 1)) {
+			ExecutorService executor = ParallelExport.getExecutor();
+			while (count > 0) {
+				List<Future<?>> futures = new ArrayList<Future<?>>();
+				for (List<FolderExportedContent> list : lists) {
+					for (int i = 0; i + 1 < list.size(); i += 2) {
+						final FolderExportedContent left = list.get(i);
+						final FolderExportedContent right = list.get(i + 1);
+						futures.add(executor.submit(new Runnable() {
+							public void run() {
+								merge(left, right);
+							}
+						}));
+					}
+				}
+				waitFor(futures);
+				count = 0;
+				for (List<FolderExportedContent> list : lists) {
+					for (int i = list.size() - 1; i > 0; i--) {
+						if (i % 2 == 1)
+							list.remove(i);
+					}
+					count += list.size() - 1;
+				}
+			}
+		} else {
+			for (List<FolderExportedContent> list : lists) {
+				for (int i = 1; i < list.size(); i++)
+					merge(list.get(0), list.get(i));
+			}
+		}
+
+		int i = 0;
+		for (Map.Entry<K, List<FolderExportedContent>> e : trees.entrySet()) {
+			if (e.getValue().isEmpty())
+				continue;
+			result.put(e.getKey(), lists.get(i++).get(0));
+		}
+	}
+
+	/**
+	 * Wait for the end of the specified merges and rethrow their errors.
+	 * 
+	 * @param futures
+	 *            the running merges
+	 */
+	private static void waitFor(List<Future<?>> futures) {
+		boolean interrupted = false;
+		try {
+			for (Future<?> future : futures) {
+				while (true) {
+					try {
+						future.get();
+						break;
+					} catch (InterruptedException e) {
+						// the trees must be complete at the end
+						interrupted = true;
+					} catch (ExecutionException e) {
+						Throwable cause = e.getCause();
+						if (cause instanceof RuntimeException)
+							throw (RuntimeException) cause;
+						if (cause instanceof Error)
+							throw (Error) cause;
+						throw new IllegalStateException(cause);
+					}
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void mergeFlags(IDeltaSetter current, IDeltaSetter currentToMerge) {
+		boolean added = current.isAdded() && currentToMerge.isAdded();
+		boolean updated = DeltaContentUtil.atLeastOneUpdate(current, currentToMerge) || 
+		                  (DeltaContentUtil.atLeastOneAdd(current, currentToMerge) && 
+		                		  DeltaContentUtil.atLeastOneRemove(current, currentToMerge));
+		boolean removed = current.isRemoved() && currentToMerge.isRemoved();
+		DeltaContentUtil.modify(current, added, updated, removed);
+	}
+	
+	private static void merge(FileExportedContent exportedFile, FileExportedContent fileToMerge) {
+		mergeFlags(exportedFile, fileToMerge);
+	}
+
+	/**
+	 * Merge two equal members : both are files or both are folders.
+	 * 
+	 * @param content
+	 * @param contentToMerge
+	 */
+	private static void mergeMember(IExportedContent content, IExportedContent contentToMerge) {
+		if ((content instanceof FolderExportedContent) && (contentToMerge instanceof FolderExportedContent))
+			merge((FolderExportedContent) content, (FolderExportedContent) contentToMerge);
+		else if ((content instanceof FileExportedContent) && (contentToMerge instanceof FileExportedContent))
+			merge((FileExportedContent) content, (FileExportedContent) contentToMerge);
+		else
+			throw new IllegalArgumentException("content and contentToMerge must be of same type (FileExportedContent or FolderExportedContent).");
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fede.workspace.eclipse.composition.copy.exporter;
+
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * Receives the files and folders exported by an exporter while it scans the
+ * component project, instead of a complete tree of exported contents.
+ * 
+ * @author Thomas
+ *
+ */
+public interface IExportSink {
+
+	/**
+	 * Receive an exported file or folder. The content is a
+	 * {@link FileExportedContent} or a {@link FolderExportedContent} without
+	 * member ; a folder is received before its members.
+	 * 
+	 * @param content an exported file or folder
+	 * @param targetFolder the target folder of the content (see
+	 *            {@link FolderExportedContent#getTargetFolder()}), null for
+	 *            the default target folder
+	 * @throws CoreException if the content cannot be consumed
+	 */
+	public void export(IDeltaSetter content, String targetFolder) throws CoreException;
+}
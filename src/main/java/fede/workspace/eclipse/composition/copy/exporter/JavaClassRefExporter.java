@@ -25,6 +25,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
@@ -60,6 +61,11 @@ public class JavaClassRefExporter extends ProjectExporter {
 	protected boolean ajExport;
 	protected boolean sourceExport;
 	
+	/**
+	 * True if a subclass overrides the export into trees, null until it is known.
+	 */
+	private Boolean _overridesTreeExport;
+	
 	/**
 	 * Create a JavaClassRefExporter.
 	 * 
@@ -86,7 +92,88 @@ public class JavaClassRefExporter extends ProjectExporter {
 	 */
 	@Override
 	protected IExportedContent exportItem(IProject componentProject, IResourceDelta projectDelta, IProgressMonitor monitor, String exporterType, IExporterTarget target, boolean fullExport) throws CoreException {
+		FolderExportedContent folderContent = new FolderExportedContent(getItem(), exporterType);
+		beginExport(componentProject, exporterType);
+		
+		Map<IPath, FolderExportedContent> outputLocations = findLocations(folderContent, exporterType);
+			
+		if (fullExport)
+			projectDelta = null;
+		
+		for (Map.Entry<IPath, FolderExportedContent> outputPath : outputLocations.entrySet()) {
+			IFolder outputRoot			= getFolder(outputPath.getKey());
+			
+			exportFolder(monitor, outputPath.getValue(), outputRoot, projectDelta);
+		}
+		return folderContent;
+	}
+
+	/**
+	 * Gives to the sink all Java compiles java files (.class files) that have been added, removed
+	 * or updated since the last build, while the output directories are scanned.
+	 *
+	 * @param componentProject the project which contain the component content.
+	 * @param projectDelta     resource delta of componentProject since the last build
+	 * @param monitor          the monitor of this build process
+	 * @param exporterType     the exporter type of files and directory to export
+	 * @param fullExport       true for a full export
+	 * @param sink             the sink which receives the exported files and folders
+	 * @throws CoreException   In case of error which cancel the build process
+	 */
+	@Override
+	protected void exportItem(IProject componentProject, IResourceDelta projectDelta, IProgressMonitor monitor, String exporterType, boolean fullExport, IExportSink sink) throws CoreException {
+		if (overridesTreeExport()) {
+			// the overridden methods only build trees
+			replay((FolderExportedContent) exportItem(componentProject, projectDelta, monitor, exporterType, null, fullExport), sink);
+			return;
+		}
+		beginExport(componentProject, exporterType);
+		
+		Map<IPath, IExportSink> outputLocations = findLocations(sink, exporterType);
+			
+		if (fullExport)
+			projectDelta = null;
+		
+		
+		for (Map.Entry<IPath, IExportSink> outputPath : outputLocations.entrySet()) {
+			IFolder outputRoot			= getFolder(outputPath.getKey());
+			
+			exportFolder(monitor, outputPath.getValue(), outputRoot, projectDelta);
+		}
+	}
+
+	/**
+	 * Return true if a subclass overrides {@link #findLocations(FolderExportedContent, String)}
+	 * or {@link #exportFolder(IProgressMonitor, FolderExportedContent, IFolder, IResourceDelta)} :
+	 * the contents given to a sink are then exported into a tree first.
+	 */
+	private boolean overridesTreeExport() {
+		if (_overridesTreeExport == null) {
+			_overridesTreeExport = Boolean.FALSE;
+			for (Class<?> c = getClass(); c != JavaClassRefExporter.class; c = c.getSuperclass()) {
+				if (declares(c, "findLocations", FolderExportedContent.class, String.class)
+						|| declares(c, "exportFolder", IProgressMonitor.class, FolderExportedContent.class, IFolder.class, IResourceDelta.class)) {
+					_overridesTreeExport = Boolean.TRUE;
+					break;
+				}
+			}
+		}
+		return _overridesTreeExport.booleanValue();
+	}
+
+	private static boolean declares(Class<?> c, String name, Class<?>... parameterTypes) {
+		try {
+			c.getDeclaredMethod(name, parameterTypes);
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
 
+	/**
+	 * Check the project of the item and select the files to export.
+	 */
+	private void beginExport(IProject componentProject, String exporterType) {
 		/*
 		 * Verify this item is actually hosted in a Java Project
 		 */
@@ -100,8 +187,6 @@ public class JavaClassRefExporter extends ProjectExporter {
 		 * We need to handle mapping variants in which there are many composites in a single java project,
 		 * this is the case for example when a composite has parts that are themselves java composites.
 		 */
-		FolderExportedContent folderContent = new FolderExportedContent(getItem(), exporterType);
-		
 		if (exporterType.equals(JAVA_REF_EXPORTER_TYPE)) {
 			this.sourceExport = false;
 			this.ajExport = false;
@@ -109,27 +194,31 @@ public class JavaClassRefExporter extends ProjectExporter {
 			this.sourceExport = true;
 			this.ajExport = exporterType.equals(AJ_SOURCE_FILE_REF_EXPORTER_TYPE);
 		}
-		
-		Map<IPath, FolderExportedContent> outputLocations = findLocations(folderContent, exporterType);
-			
-		if (fullExport)
-			projectDelta = null;
-		
-		
-		for (Map.Entry<IPath, FolderExportedContent> outputPath : outputLocations.entrySet()) {
-			IFolder outputRoot			= getFolder(outputPath.getKey());
-			
-			exportFolder(monitor, outputPath.getValue(), outputRoot, projectDelta);
-		}
-		
-		return folderContent;
+	}
+
+
+	/**
+	 * The export only reads the Java model and the output folders.
+	 */
+	@Override
+	protected boolean isReadOnlyExport(IProject componentProject, String exporterType) {
+		return true;
 	}
 
 
 	protected Map<IPath, FolderExportedContent> findLocations(FolderExportedContent folderContent, String exporterType) throws JavaModelException, CoreException {
+		Map<IPath, FolderExportedContent> outputLocations = new HashMap<IPath, FolderExportedContent>();
+		for (IPath outputPath : findLocations((IExportSink) folderContent, exporterType).keySet()) {
+			outputLocations.put(outputPath, folderContent);
+		}
+		return outputLocations;
+	}
+
+
+	protected Map<IPath, IExportSink> findLocations(IExportSink folderContent, String exporterType) throws JavaModelException, CoreException {
 		IJavaProject javaProject = JavaProjectManager.getJavaProject(getItem());
 		
-		Map<IPath, FolderExportedContent> outputLocations = new HashMap<IPath, FolderExportedContent>();
+		Map<IPath, IExportSink> outputLocations = new HashMap<IPath, IExportSink>();
 		IClasspathEntry[] rawClasspath = javaProject.getRawClasspath();
 		
 		if (exporterType.equals(JAVA_REF_EXPORTER_TYPE)) {
@@ -167,13 +256,18 @@ public class JavaClassRefExporter extends ProjectExporter {
 
 
 	protected void exportFolder(IProgressMonitor monitor, FolderExportedContent folderContent, IFolder outputRoot, IResourceDelta projectDelta) throws CoreException {
+		exportFolder(monitor, (IExportSink) folderContent, outputRoot, projectDelta);
+	}
+
+
+	protected void exportFolder(IProgressMonitor monitor, IExportSink folderContent, IFolder outputRoot, IResourceDelta projectDelta) throws CoreException {
 		IResourceDelta outputDelta 	= (projectDelta != null) ? projectDelta.findMember(outputRoot.getProjectRelativePath()): null;
 		
 		// If no modification of the output location just skip it
 		if ((projectDelta != null) && (outputDelta == null))
 			return;
 		
-		Scanner scanner = new Scanner(folderContent);
+		Scanner scanner = new Scanner(folderContent, getExportedType());
 		scanner.scan(outputRoot, outputDelta, monitor);
 	}
 	
@@ -188,13 +282,19 @@ public class JavaClassRefExporter extends ProjectExporter {
 	 */
 	protected class Scanner implements IResourceVisitor, IResourceDeltaVisitor {
 		
-		private final FolderExportedContent _exportedContent;
+		private final IExportSink	_sink;
+		private final String		_exporterType;
 
 		private IFolder 			_outputFolder;
 		private IProgressMonitor	_monitor;
 		
 		public Scanner(FolderExportedContent exportedContentList) {
-			this._exportedContent	= exportedContentList;
+			this(exportedContentList, exportedContentList.getExporterType());
+		}
+
+		public Scanner(IExportSink sink, String exporterType) {
+			this._sink			= sink;
+			this._exporterType	= exporterType;
 		}
 
 		/**
@@ -245,7 +345,7 @@ public class JavaClassRefExporter extends ProjectExporter {
 			if (filter(outputResource))
 				return false;
 			IPath filePath = getRelativePath(_outputFolder, outputResource);
-			_exportedContent.delete(outputResource, filePath, _monitor);
+			export(outputResource, filePath, false, false, true);
 			return isFolder(outputResource);
 		}
 		
@@ -257,7 +357,7 @@ public class JavaClassRefExporter extends ProjectExporter {
 			if (filePath.segmentCount() == 0)
 				return true;
 			
-			_exportedContent.add(outputResource, filePath, _monitor);
+			export(outputResource, filePath, true, false, false);
 			return isFolder(outputResource);
 		}
 
@@ -265,12 +365,32 @@ public class JavaClassRefExporter extends ProjectExporter {
 			if (filter(outputResource))
 				return false;
 			IPath filePath	= getRelativePath(_outputFolder,outputResource);
-			_exportedContent.update(outputResource, filePath, _monitor);
+			export(outputResource, filePath, false, true, false);
 			return isFolder(outputResource);
 		}
 
+		private void export(IResource outputResource, IPath filePath, boolean added, boolean updated, boolean removed) throws CoreException {
+			if (filePath.segmentCount() == 0)
+				return;
+			if (outputResource.getType() == IResource.FILE)
+				_sink.export(new FileExportedContent(filePath, (IFile) outputResource, getItem(), _exporterType, added, updated, removed), null);
+			else
+				_sink.export(new FolderExportedContent(getItem(), _exporterType, filePath, added, updated, removed), null);
+		}
+
 	}
 	
+	/**
+	 * Return the exporter type of the export in progress.
+	 * 
+	 * @return the exporter type of the export in progress.
+	 */
+	protected String getExportedType() {
+		if (!sourceExport)
+			return JAVA_REF_EXPORTER_TYPE;
+		return ajExport ? AJ_SOURCE_FILE_REF_EXPORTER_TYPE : JAVA_SOURCE_FILE_REF_EXPORTER_TYPE;
+	}
+
 	protected static final boolean isFolder(IResource outputResource) {
 		return (outputResource.getType() == IResource.FOLDER);
 	}
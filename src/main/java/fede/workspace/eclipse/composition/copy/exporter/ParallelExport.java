@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fede.workspace.eclipse.composition.copy.exporter;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.eclipse.core.runtime.CoreException;
+
+import fr.imag.adele.cadse.core.build.IBuildingContext;
+import fr.imag.adele.cadse.core.build.IExporterTarget;
+
+/**
+ * Runs the exports of the components of a composite concurrently, before the
+ * composition asks the exporters one after another. The exported contents
+ * are put into the {@link ExportCache}, so the composition only copies them
+ * and merges them in its usual order : the result does not depend on the
+ * order in which the exports finish.
+ * 
+ * Only the complete contents of the components whose export only reads the
+ * workspace are exported concurrently : the resource deltas are read and
+ * the workspace is modified by the build thread only.
+ * 
+ * All the compositions share one pool of at most one thread per processor.
+ * 
+ * @author Thomas
+ * 
+ */
+public class ParallelExport {
+
+	/**
+	 * An export to run.
+	 */
+	public static class Task {
+
+		private final ProjectExporter	_exporter;
+
+		private final String			_exporterType;
+
+		private final boolean			_fullExport;
+
+		/**
+		 * Create an export task.
+		 * 
+		 * @param exporter
+		 *            the exporter of a component
+		 * @param exporterType
+		 *            the exporter type to export
+		 * @param fullExport
+		 *            true for a full export
+		 */
+		public Task(ProjectExporter exporter, String exporterType, boolean fullExport) {
+			this._exporter = exporter;
+			this._exporterType = exporterType;
+			this._fullExport = fullExport;
+		}
+
+		public ProjectExporter getExporter() {
+			return _exporter;
+		}
+
+		public String getExporterType() {
+			return _exporterType;
+		}
+
+		public boolean isFullExport() {
+			return _fullExport;
+		}
+	}
+
+	private static ExecutorService	_executor;
+
+	private ParallelExport() {
+		// static methods only
+	}
+
+	static synchronized ExecutorService getExecutor() {
+		if (_executor == null) {
+			_executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+					new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "Parallel export");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return _executor;
+	}
+
+	/**
+	 * Run the specified exports concurrently and wait for their end. The
+	 * exported contents are cached only if a build is started (see
+	 * {@link ExportCache#beginBuild()}) ; otherwise nothing is done.
+	 * 
+	 * @param context
+	 *            the building context
+	 * @param target
+	 *            the target of the composition
+	 * @param tasks
+	 *            the exports to run
+	 */
+	public static void exportAll(IBuildingContext context, final IExporterTarget target, List<Task> tasks) {
+		if (!ExportCache.isStarted() || (tasks.size() < 2)) {
+			// a single export is run by the composition
+			return;
+		}
+
+		// an exporter keeps the state of its current export in its fields, so
+		// the exports of one exporter are run one after another
+		Map<ProjectExporter, List<Task>> tasksByExporter = new IdentityHashMap<ProjectExporter, List<Task>>();
+		for (Task task : tasks) {
+			if (!task._exporter.canPrefetch(context, task._exporterType, task._fullExport)) {
+				// exported by the composition
+				continue;
+			}
+			List<Task> exporterTasks = tasksByExporter.get(task._exporter);
+			if (exporterTasks == null) {
+				exporterTasks = new ArrayList<Task>();
+				tasksByExporter.put(task._exporter, exporterTasks);
+			}
+			exporterTasks.add(task);
+		}
+		if (tasksByExporter.size() < 2) {
+			return;
+		}
+
+		List<Future<?>> futures = new ArrayList<Future<?>>(tasksByExporter.size());
+		for (final List<Task> exporterTasks : tasksByExporter.values()) {
+			futures.add(getExecutor().submit(new Callable<Object>() {
+				public Object call() throws CoreException {
+					for (Task task : exporterTasks) {
+						task._exporter.prefetch(target, task._exporterType, task._fullExport);
+					}
+					return null;
+				}
+			}));
+		}
+
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				// the export is run again by the composition
+				e.getCause().printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,544 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fede.workspace.eclipse.composition.copy.exporter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.core.runtime.IPath;
+
+/**
+ * Regular expression matched against the portable form of relative paths
+ * (see {@link IPath#toPortableString()}). The compiled patterns are cached by
+ * expression.
+ * 
+ * The expressions made of literal characters, <code>.*</code>,
+ * <code>[^/]*</code>, <code>.</code> and <code>[^/]</code> are evaluated on
+ * the segments of the paths, without building their portable form nor using
+ * the regular expression engine ; the other expressions are evaluated by
+ * {@link Pattern}.
+ * 
+ * @author Thomas
+ * 
+ */
+public class PathPattern {
+
+	private static final int						CACHE_SIZE		= 64;
+
+	/*
+	 * Kinds of expression.
+	 */
+	private static final int						LITERAL			= 0;
+	private static final int						ANY				= 1;
+	private static final int						PREFIX			= 2;
+	private static final int						SUFFIX			= 3;
+	private static final int						PREFIX_SUFFIX	= 4;
+	private static final int						GLOB			= 5;
+	private static final int						REGEX			= 6;
+
+	/*
+	 * Kinds of glob token.
+	 */
+	private static final byte						T_LITERAL			= 0;
+	private static final byte						T_ANY_STRING		= 1;
+	private static final byte						T_SEGMENT_STRING	= 2;
+	private static final byte						T_ANY_CHAR			= 3;
+	private static final byte						T_SEGMENT_CHAR		= 4;
+
+	/**
+	 * Compiled patterns by expression, cleared when it is full.
+	 */
+	private static final Map<String, PathPattern>	_cache				= new HashMap<String, PathPattern>();
+
+	private final String							_expression;
+
+	private final int								_kind;
+
+	private final byte[]							_tokens;
+
+	private final String[]							_literals;
+
+	/**
+	 * Literal prefix of the PREFIX and PREFIX_SUFFIX expressions, literal of
+	 * the LITERAL expressions.
+	 */
+	private final String							_prefix;
+
+	/**
+	 * Literal suffix of the SUFFIX and PREFIX_SUFFIX expressions.
+	 */
+	private final String							_suffix;
+
+	private final Pattern							_pattern;
+
+	private final ThreadLocal<Matcher>				_matcher;
+
+	private PathPattern(String expression) {
+		this._expression = expression;
+
+		List<Byte> tokens = new ArrayList<Byte>();
+		List<String> literals = new ArrayList<String>();
+		if (parse(expression, tokens, literals)) {
+			_tokens = new byte[tokens.size()];
+			for (int i = 0; i < _tokens.length; i++) {
+				_tokens[i] = tokens.get(i).byteValue();
+			}
+			_literals = literals.toArray(new String[literals.size()]);
+			_kind = kindOf(_tokens);
+			_prefix = (_kind == LITERAL) || (_kind == PREFIX) || (_kind == PREFIX_SUFFIX) ? _literals[0] : null;
+			_suffix = (_kind == SUFFIX) || (_kind == PREFIX_SUFFIX) ? _literals[_literals.length - 1] : null;
+			_pattern = null;
+			_matcher = null;
+		} else {
+			_tokens = null;
+			_literals = null;
+			_prefix = null;
+			_suffix = null;
+			_kind = REGEX;
+			_pattern = Pattern.compile(expression);
+			_matcher = new ThreadLocal<Matcher>() {
+				@Override
+				protected Matcher initialValue() {
+					return _pattern.matcher("");
+				}
+			};
+		}
+	}
+
+	/**
+	 * Return the compiled form of the specified regular expression.
+	 * 
+	 * @param expression
+	 *            a regular expression
+	 * @return the compiled expression.
+	 * @throws java.util.regex.PatternSyntaxException
+	 *             if the expression is not valid
+	 */
+	public static PathPattern compile(String expression) {
+		synchronized (_cache) {
+			PathPattern pattern = _cache.get(expression);
+			if (pattern == null) {
+				pattern = new PathPattern(expression);
+				if (_cache.size() >= CACHE_SIZE) {
+					_cache.clear();
+				}
+				_cache.put(expression, pattern);
+			}
+			return pattern;
+		}
+	}
+
+	/**
+	 * Return the regular expression of this pattern.
+	 * 
+	 * @return the regular expression of this pattern.
+	 */
+	public String getExpression() {
+		return _expression;
+	}
+
+	/**
+	 * Return true if the portable form of the specified path matches this
+	 * pattern.
+	 * 
+	 * @param path
+	 *            a path
+	 * @return true if the path matches this pattern.
+	 */
+	public boolean matches(IPath path) {
+		if ((_kind == REGEX) || path.isAbsolute() || path.hasTrailingSeparator() || (path.getDevice() != null)) {
+			return matches(path.toPortableString());
+		}
+		switch (_kind) {
+			case ANY:
+				return true;
+			case LITERAL:
+				return (length(path) == _prefix.length()) && startsWith(path, _prefix);
+			case PREFIX:
+				return startsWith(path, _prefix);
+			case SUFFIX:
+				return endsWith(path, _suffix);
+			case PREFIX_SUFFIX:
+				return (length(path) >= _prefix.length() + _suffix.length()) && startsWith(path, _prefix)
+						&& endsWith(path, _suffix);
+			default:
+				return glob(new PathChars(path, false), 0, 0, false);
+		}
+	}
+
+	/**
+	 * Return true if the portable form of a path below the specified folder
+	 * may match this pattern. The folders for which it returns false can be
+	 * skipped by the visitors.
+	 * 
+	 * @param folderPath
+	 *            the relative path of a folder, empty for the scanned folder
+	 * @return false if no path below the folder matches this pattern.
+	 */
+	public boolean canMatchBelow(IPath folderPath) {
+		boolean separator = folderPath.segmentCount() > 0;
+		if ((_kind == REGEX) || folderPath.isAbsolute() || folderPath.hasTrailingSeparator()
+				|| (folderPath.getDevice() != null)) {
+			String prefix = separator ? folderPath.toPortableString() + "/" : "";
+			if (_kind != REGEX) {
+				return glob(prefix, 0, 0, true);
+			}
+			// the matcher hits the end of the prefix if a longer input may
+			// match
+			Matcher matcher = _matcher.get();
+			matcher.reset(prefix);
+			return matcher.matches() || matcher.hitEnd();
+		}
+		switch (_kind) {
+			case ANY:
+			case SUFFIX:
+				return true;
+			default:
+				return glob(new PathChars(folderPath, separator), 0, 0, true);
+		}
+	}
+
+	/**
+	 * Return true if the specified string matches this pattern.
+	 * 
+	 * @param path
+	 *            the portable form of a path
+	 * @return true if the string matches this pattern.
+	 */
+	public boolean matches(String path) {
+		if (_kind == REGEX) {
+			Matcher matcher = _matcher.get();
+			matcher.reset(path);
+			return matcher.matches();
+		}
+		return glob(path, 0, 0, false);
+	}
+
+	/**
+	 * Split the expression into glob tokens.
+	 * 
+	 * @return false if the expression uses other constructs than literal
+	 *         characters, <code>.*</code>, <code>[^/]*</code>, <code>.</code>
+	 *         and <code>[^/]</code>.
+	 */
+	private static boolean parse(String expression, List<Byte> tokens, List<String> literals) {
+		int start = 0;
+		int end = expression.length();
+		if (expression.startsWith("^")) {
+			start = 1;
+		}
+		if ((end > start) && (expression.charAt(end - 1) == '$') && !isEscaped(expression, end - 1)) {
+			end--;
+		}
+
+		StringBuilder literal = new StringBuilder();
+		int i = start;
+		while (i < end) {
+			char c = expression.charAt(i);
+			if (c == '\\') {
+				if (i + 1 >= end) {
+					return false;
+				}
+				char d = expression.charAt(i + 1);
+				if (d == 'Q') {
+					int quoteEnd = expression.indexOf("\\E", i + 2);
+					if ((quoteEnd < 0) || (quoteEnd > end)) {
+						return false;
+					}
+					literal.append(expression, i + 2, quoteEnd);
+					i = quoteEnd + 2;
+				} else if (Character.isLetterOrDigit(d)) {
+					// character classes, back references...
+					return false;
+				} else {
+					literal.append(d);
+					i += 2;
+				}
+				continue;
+			}
+
+			byte token;
+			if (c == '.') {
+				if ((i + 1 < end) && (expression.charAt(i + 1) == '*')) {
+					token = T_ANY_STRING;
+					i += 2;
+				} else {
+					token = T_ANY_CHAR;
+					i++;
+				}
+			} else if (expression.startsWith("[^/]", i)) {
+				if ((i + 4 < end) && (expression.charAt(i + 4) == '*')) {
+					token = T_SEGMENT_STRING;
+					i += 5;
+				} else {
+					token = T_SEGMENT_CHAR;
+					i += 4;
+				}
+			} else if ("[]{}()*+?^$|".indexOf(c) >= 0) {
+				return false;
+			} else {
+				literal.append(c);
+				i++;
+				continue;
+			}
+
+			if ((i < end) && ("*+?{".indexOf(expression.charAt(i)) >= 0)) {
+				// quantified wildcard
+				return false;
+			}
+			if (literal.length() > 0) {
+				tokens.add(Byte.valueOf(T_LITERAL));
+				literals.add(literal.toString());
+				literal.setLength(0);
+			}
+			tokens.add(Byte.valueOf(token));
+			literals.add(null);
+		}
+		if (literal.length() > 0) {
+			tokens.add(Byte.valueOf(T_LITERAL));
+			literals.add(literal.toString());
+		}
+		return true;
+	}
+
+	private static boolean isEscaped(String expression, int index) {
+		int backslashes = 0;
+		for (int i = index - 1; (i >= 0) && (expression.charAt(i) == '\\'); i--) {
+			backslashes++;
+		}
+		return (backslashes % 2) == 1;
+	}
+
+	private static int kindOf(byte[] tokens) {
+		if ((tokens.length == 1) && (tokens[0] == T_LITERAL)) {
+			return LITERAL;
+		}
+		if ((tokens.length == 1) && (tokens[0] == T_ANY_STRING)) {
+			return ANY;
+		}
+		if ((tokens.length == 2) && (tokens[0] == T_LITERAL) && (tokens[1] == T_ANY_STRING)) {
+			return PREFIX;
+		}
+		if ((tokens.length == 2) && (tokens[0] == T_ANY_STRING) && (tokens[1] == T_LITERAL)) {
+			return SUFFIX;
+		}
+		if ((tokens.length == 3) && (tokens[0] == T_LITERAL) && (tokens[1] == T_ANY_STRING)
+				&& (tokens[2] == T_LITERAL)) {
+			return PREFIX_SUFFIX;
+		}
+		return GLOB;
+	}
+
+	/**
+	 * Return true if the characters of the specified sequence from the
+	 * specified index match the tokens from the specified index. In prefix
+	 * mode, return true if the characters are the beginning of a matching
+	 * sequence : the tokens which remain when all the characters are read
+	 * can always be matched by more characters.
+	 */
+	private boolean glob(CharSequence s, int si, int ti, boolean prefix) {
+		int length = s.length();
+		while (ti < _tokens.length) {
+			if (prefix && (si == length)) {
+				return true;
+			}
+			switch (_tokens[ti]) {
+				case T_LITERAL: {
+					String literal = _literals[ti];
+					if (length - si < literal.length()) {
+						if (!prefix) {
+							return false;
+						}
+						for (int i = si; i < length; i++) {
+							if (s.charAt(i) != literal.charAt(i - si)) {
+								return false;
+							}
+						}
+						return true;
+					}
+					for (int i = 0; i < literal.length(); i++) {
+						if (s.charAt(si + i) != literal.charAt(i)) {
+							return false;
+						}
+					}
+					si += literal.length();
+					break;
+				}
+				case T_ANY_CHAR: {
+					if (si >= length) {
+						return false;
+					}
+					si++;
+					break;
+				}
+				case T_SEGMENT_CHAR: {
+					if ((si >= length) || (s.charAt(si) == '/')) {
+						return false;
+					}
+					si++;
+					break;
+				}
+				case T_ANY_STRING: {
+					if (ti == _tokens.length - 1) {
+						return true;
+					}
+					for (int k = si; k <= length; k++) {
+						if (glob(s, k, ti + 1, prefix)) {
+							return true;
+						}
+					}
+					return false;
+				}
+				case T_SEGMENT_STRING: {
+					for (int k = si;; k++) {
+						if (glob(s, k, ti + 1, prefix)) {
+							return true;
+						}
+						if ((k >= length) || (s.charAt(k) == '/')) {
+							return false;
+						}
+					}
+				}
+			}
+			ti++;
+		}
+		// a path below the folder is longer than the prefix
+		return !prefix && (si == length);
+	}
+
+	/**
+	 * Return the length of the portable form of a relative path.
+	 */
+	private static int length(IPath path) {
+		int count = path.segmentCount();
+		int length = count > 0 ? count - 1 : 0;
+		for (int i = 0; i < count; i++) {
+			length += path.segment(i).length();
+		}
+		return length;
+	}
+
+	/**
+	 * Return true if the portable form of a relative path starts with the
+	 * specified string.
+	 */
+	private static boolean startsWith(IPath path, String prefix) {
+		int count = path.segmentCount();
+		int pos = 0;
+		for (int i = 0; (i < count) && (pos < prefix.length()); i++) {
+			if ((i > 0) && (prefix.charAt(pos++) != '/')) {
+				return false;
+			}
+			String segment = path.segment(i);
+			int len = Math.min(segment.length(), prefix.length() - pos);
+			if (!segment.regionMatches(0, prefix, pos, len)) {
+				return false;
+			}
+			pos += len;
+		}
+		return pos == prefix.length();
+	}
+
+	/**
+	 * Return true if the portable form of a relative path ends with the
+	 * specified string.
+	 */
+	private static boolean endsWith(IPath path, String suffix) {
+		int pos = suffix.length();
+		for (int i = path.segmentCount() - 1; (i >= 0) && (pos > 0); i--) {
+			String segment = path.segment(i);
+			int len = Math.min(segment.length(), pos);
+			if (!segment.regionMatches(segment.length() - len, suffix, pos - len, len)) {
+				return false;
+			}
+			pos -= len;
+			if ((pos > 0) && (i > 0) && (suffix.charAt(--pos) != '/')) {
+				return false;
+			}
+		}
+		return pos == 0;
+	}
+
+	@Override
+	public String toString() {
+		return _expression;
+	}
+
+	/**
+	 * The portable form of a relative path, read from its segments, with an
+	 * optional trailing separator.
+	 */
+	private static class PathChars implements CharSequence {
+
+		private final IPath		_path;
+
+		private final int[]		_offsets;
+
+		private final int		_length;
+
+		private final boolean	_separator;
+
+		private int				_segment;
+
+		PathChars(IPath path, boolean separator) {
+			this._path = path;
+			this._separator = separator;
+			int count = path.segmentCount();
+			_offsets = new int[count];
+			int offset = 0;
+			for (int i = 0; i < count; i++) {
+				_offsets[i] = offset;
+				offset += path.segment(i).length() + 1;
+			}
+			_length = (count > 0 ? offset - 1 : 0) + (separator ? 1 : 0);
+		}
+
+		public int length() {
+			return _length;
+		}
+
+		public char charAt(int index) {
+			// the characters are mostly read forward
+			if (index < _offsets[_segment]) {
+				_segment = 0;
+			}
+			while ((_segment + 1 < _offsets.length) && (index >= _offsets[_segment + 1])) {
+				_segment++;
+			}
+			int i = index - _offsets[_segment];
+			String segment = _path.segment(_segment);
+			return i < segment.length() ? segment.charAt(i) : '/';
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			return toString().subSequence(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return _separator ? _path.toPortableString() + "/" : _path.toPortableString();
+		}
+	}
+}
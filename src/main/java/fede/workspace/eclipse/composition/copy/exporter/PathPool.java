@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * Copyright (C) 2006-2010 Adele Team/LIG/Grenoble University, France
+ */
+package fede.workspace.eclipse.composition.copy.exporter;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Pool of canonical paths shared by the composers, their repositories and the
+ * export snapshots. Equal paths interned by the pool are the same instance,
+ * and the segment strings of a canonical path are the ones of the canonical
+ * instance of its parent path. The segment arrays are not shared :
+ * {@link Path#append(String)} copies them.
+ * 
+ * Interning a path which is not in the pool locks the pool once per segment,
+ * so the exporters do not intern the path of each scanned file. The pool
+ * interns the paths read from a repository or a snapshot and the folders
+ * created in an exported tree.
+ * 
+ * The pool only keeps weak references : a path which is no longer used is
+ * removed from it.
+ * 
+ * @author Thomas
+ * 
+ */
+public class PathPool {
+
+	private static final Map<IPath, WeakReference<IPath>>	_paths		= new WeakHashMap<IPath, WeakReference<IPath>>();
+
+	private static final Map<String, WeakReference<String>>	_segments	= new WeakHashMap<String, WeakReference<String>>();
+
+	private PathPool() {
+		// static methods only
+	}
+
+	/**
+	 * Return the canonical instance of the specified path.
+	 * 
+	 * @param path
+	 *            a path, may be null
+	 * @return the canonical path equal to the specified one.
+	 */
+	public static IPath intern(IPath path) {
+		if (path == null) {
+			return null;
+		}
+		IPath canonical = get(path);
+		if (canonical != null) {
+			return canonical;
+		}
+
+		canonical = path;
+		if ((path.segmentCount() > 0) && !path.isAbsolute() && !path.hasTrailingSeparator()
+				&& (path.getDevice() == null)) {
+			// share the segments of the parent path
+			IPath candidate = intern(path.removeLastSegments(1)).append(internSegment(path.lastSegment()));
+			if (candidate.equals(path)) {
+				canonical = candidate;
+			}
+		}
+
+		synchronized (_paths) {
+			IPath existing = get(path);
+			if (existing != null) {
+				return existing;
+			}
+			_paths.put(canonical, new WeakReference<IPath>(canonical));
+			return canonical;
+		}
+	}
+
+	/**
+	 * Return the canonical path represented by the specified portable string.
+	 * 
+	 * @param pathString
+	 *            a path in portable form
+	 * @return the canonical path.
+	 * @see IPath#toPortableString()
+	 */
+	public static IPath fromPortableString(String pathString) {
+		return intern(Path.fromPortableString(pathString));
+	}
+
+	/**
+	 * Return the canonical path of the first segments of the specified path.
+	 * 
+	 * @param path
+	 *            a path
+	 * @param count
+	 *            the number of segments to keep
+	 * @return the canonical path of the first segments of the path.
+	 */
+	public static IPath uptoSegment(IPath path, int count) {
+		return intern(path.uptoSegment(count));
+	}
+
+	private static IPath get(IPath path) {
+		synchronized (_paths) {
+			WeakReference<IPath> ref = _paths.get(path);
+			return (ref == null) ? null : ref.get();
+		}
+	}
+
+	private static String internSegment(String segment) {
+		synchronized (_segments) {
+			WeakReference<String> ref = _segments.get(segment);
+			String canonical = (ref == null) ? null : ref.get();
+			if (canonical == null) {
+				canonical = segment;
+				_segments.put(canonical, new WeakReference<String>(canonical));
+			}
+			return canonical;
+		}
+	}
+}
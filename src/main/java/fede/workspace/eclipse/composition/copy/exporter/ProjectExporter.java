@@ -20,10 +20,15 @@
  */
 package fede.workspace.eclipse.composition.copy.exporter;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
 
 import fr.imag.adele.cadse.core.Item;
 import fr.imag.adele.cadse.core.content.ContentItem;
@@ -37,6 +42,16 @@ import fede.workspace.eclipse.composition.CompositeBuildingContext;
 
 public abstract class ProjectExporter extends Exporter {
 
+	/**
+	 * Exporter types already exported into a sink by the current thread.
+	 */
+	private final ThreadLocal<Set<String>>					_streamedTypes		= new ThreadLocal<Set<String>>();
+
+	/**
+	 * Monitor of the detached exports run by the current thread.
+	 */
+	private static final ThreadLocal<IProgressMonitor>	_detachedMonitor	= new ThreadLocal<IProgressMonitor>();
+
 	protected ProjectExporter(Item contentManager, String... exporterTypes) {
 		super(contentManager, exporterTypes);
 	}
@@ -44,15 +59,200 @@ public abstract class ProjectExporter extends Exporter {
 	@Override
 	public IExportedContent exportItem(IBuildingContext context, IExporterTarget target, String exporterType,
 			boolean fullExport) {
+		Set<String> streamedTypes = _streamedTypes.get();
+		if ((streamedTypes != null) && streamedTypes.remove(exporterType)) {
+			// the content has already been given to the composer
+			return new FolderExportedContent(getItem(), exporterType);
+		}
+		return export(context, target, exporterType, fullExport);
+	}
+
+	/**
+	 * Export the files and folders of the item into the specified sink while
+	 * the component project is scanned. The next call of
+	 * {@link #exportItem(IBuildingContext, IExporterTarget, String, boolean)}
+	 * for the same exporter type in the current thread returns an empty
+	 * content, unless {@link #endStreaming()} is called before.
+	 * 
+	 * @param context
+	 *            the building context
+	 * @param exporterType
+	 *            the exporter type to export
+	 * @param fullExport
+	 *            true for a full export
+	 * @param sink
+	 *            the sink which receives the exported files and folders
+	 * @throws CoreException
+	 *             if the export fails
+	 */
+	public void exportItem(IBuildingContext context, String exporterType, boolean fullExport, IExportSink sink)
+			throws CoreException {
+		exportItem(context, null, exporterType, fullExport, sink);
+	}
+
+	/**
+	 * Export the files and folders of the item into the specified sink while
+	 * the component project is scanned, as
+	 * {@link #exportItem(IBuildingContext, String, boolean, IExportSink)}. The
+	 * exported contents are staged in the {@link ExportSnapshot} of the
+	 * composer related to the target, which commits them once they are
+	 * copied ; if the component project has no
+	 * resource delta, only the changes since the recorded export are given to
+	 * the sink.
+	 * 
+	 * @param context
+	 *            the building context
+	 * @param target
+	 *            the exporter target of the composer, may be null
+	 * @param exporterType
+	 *            the exporter type to export
+	 * @param fullExport
+	 *            true for a full export
+	 * @param sink
+	 *            the sink which receives the exported files and folders
+	 * @throws CoreException
+	 *             if the export fails
+	 */
+	public void exportItem(IBuildingContext context, IExporterTarget target, String exporterType,
+			boolean fullExport, IExportSink sink) throws CoreException {
+		IProgressMonitor monitor = getMonitor(context);
+
+		IProject componentProject = MelusineProjectManager.getProject(getItem());
+		IResourceDelta componentUpdate = fullExport ? null : getDelta(context, componentProject);
+
+		Set<String> streamedTypes = _streamedTypes.get();
+		if (streamedTypes == null) {
+			streamedTypes = new HashSet<String>();
+			_streamedTypes.set(streamedTypes);
+		}
+		streamedTypes.add(exporterType);
+
+		ExportSnapshot snapshot = ExportSnapshot.get(target, getItem(), exporterType);
+		if (snapshot == null) {
+			exportItem(componentProject, componentUpdate, monitor, exporterType, fullExport, sink);
+		} else if (!fullExport && (componentUpdate == null) && snapshot.isValid()) {
+			// the changes are only known once the whole component is scanned
+			IExportedContent content = export(context, target, exporterType, fullExport);
+			if (content instanceof FolderExportedContent) {
+				replay((FolderExportedContent) content, sink);
+			}
+		} else {
+			ExportSnapshot.Recorder recorder = snapshot.record(sink, componentUpdate == null);
+			exportItem(componentProject, componentUpdate, monitor, exporterType, fullExport, recorder);
+			recorder.stage();
+		}
+	}
 
-		IProgressMonitor monitor = ((CompositeBuildingContext) context).getMonitor();
+	/**
+	 * Start exporting outside of the build which has created the building
+	 * contexts, for instance for a composition run later by a job : the
+	 * resource deltas of the builders are no more valid, so the items are
+	 * exported without delta (from their {@link ExportSnapshot} or
+	 * completely), and the specified monitor replaces the one of the
+	 * building context. It applies to the exports of the current thread until
+	 * {@link #endDetachedExport()} is called.
+	 * 
+	 * @param monitor
+	 *            the monitor of the exports
+	 */
+	public static void beginDetachedExport(IProgressMonitor monitor) {
+		_detachedMonitor.set(monitor);
+	}
+
+	/**
+	 * Stop exporting outside of a build in the current thread.
+	 */
+	public static void endDetachedExport() {
+		_detachedMonitor.remove();
+	}
+
+	/**
+	 * Return the resource delta of the specified project since the last build
+	 * or null if it is not known.
+	 */
+	private static IResourceDelta getDelta(IBuildingContext context, IProject componentProject) {
+		if (_detachedMonitor.get() != null) {
+			return null;
+		}
 		CompositeBuilder builder = ((CompositeBuildingContext) context).getBuilder();
+		return builder.getDelta(componentProject);
+	}
+
+	private static IProgressMonitor getMonitor(IBuildingContext context) {
+		IProgressMonitor monitor = _detachedMonitor.get();
+		return (monitor != null) ? monitor : ((CompositeBuildingContext) context).getMonitor();
+	}
+
+	/**
+	 * Forget the exporter types exported into a sink by the current thread.
+	 */
+	public void endStreaming() {
+		_streamedTypes.remove();
+	}
+
+	/**
+	 * Return true if the complete contents of the item can be exported into
+	 * the {@link ExportCache} by another thread than the build thread (see
+	 * {@link ParallelExport}) : they are not exported with a resource delta,
+	 * not cached yet, and their export only reads the workspace. It must be
+	 * called by the build thread.
+	 */
+	boolean canPrefetch(IBuildingContext context, String exporterType, boolean fullExport) {
+		IProject componentProject = MelusineProjectManager.getProject(getItem());
+		if ((componentProject == null) || (!fullExport && (getDelta(context, componentProject) != null))) {
+			return false;
+		}
+		if (!isReadOnlyExport(componentProject, exporterType)) {
+			return false;
+		}
+		try {
+			return !ExportCache.contains(getItem().getId(), exporterType,
+					ExportCache.getContentStamp(componentProject));
+		} catch (CoreException e) {
+			// exported by the composition
+			return false;
+		}
+	}
+
+	/**
+	 * Export the complete contents of the item into the {@link ExportCache}
+	 * without returning them. It is called by another thread than the build
+	 * thread once {@link #canPrefetch(IBuildingContext, String, boolean)} has
+	 * returned true, so it neither reads resource deltas nor reports progress.
+	 */
+	void prefetch(IExporterTarget target, String exporterType, boolean fullExport) throws CoreException {
+		IProject componentProject = MelusineProjectManager.getProject(getItem());
+		long stamp = ExportCache.getContentStamp(componentProject);
+		IExportedContent content = exportItem(componentProject, null, new NullProgressMonitor(), exporterType,
+				target, fullExport);
+		ExportCache.put(getItem().getId(), exporterType, stamp, content);
+	}
+
+	/**
+	 * Return true if exporting the complete contents of the specified type
+	 * only reads the workspace, so that it can be run by another thread than
+	 * the build thread. This implementation returns false.
+	 * 
+	 * @param componentProject
+	 *            the project which contain the component content.
+	 * @param exporterType
+	 *            the exporter type of files and directory to export
+	 * @return true if the export does not modify the workspace.
+	 */
+	protected boolean isReadOnlyExport(IProject componentProject, String exporterType) {
+		return false;
+	}
+
+	private IExportedContent export(IBuildingContext context, IExporterTarget target, String exporterType,
+			boolean fullExport) {
+
+		IProgressMonitor monitor = getMonitor(context);
 
 		/*
 		 * Get the packaged item in the target repository, create it if needed.
 		 */
 		IProject componentProject = MelusineProjectManager.getProject(getItem());
-		IResourceDelta componentUpdate = builder.getDelta(componentProject);
+		IResourceDelta componentUpdate = getDelta(context, componentProject);
 		if (fullExport) {
 			componentUpdate = null;
 		}
@@ -67,11 +267,30 @@ public abstract class ProjectExporter extends Exporter {
 			// }
 			// }
 
-			/*
-			 * package folder content
-			 */
-			eclipseExportedContent = exportItem(componentProject, componentUpdate, monitor, exporterType, target,
-					fullExport);
+			// a component included in several composites is scanned once ;
+			// only the complete contents are shared, each composite builder
+			// has its own delta, and they are scanned again if the component
+			// has been rebuilt since
+			boolean complete = (componentUpdate == null) && ExportCache.isStarted();
+			long stamp = 0;
+			if (complete) {
+				stamp = ExportCache.getContentStamp(componentProject);
+				eclipseExportedContent = ExportCache.get(getItem().getId(), exporterType, stamp);
+			}
+
+			if (eclipseExportedContent == null) {
+				/*
+				 * package folder content
+				 */
+				eclipseExportedContent = exportItem(componentProject, componentUpdate, monitor, exporterType,
+						target, fullExport);
+				if (complete) {
+					ExportCache.put(getItem().getId(), exporterType, stamp, eclipseExportedContent);
+				}
+			}
+
+			eclipseExportedContent = record(componentProject, componentUpdate, target, exporterType, fullExport,
+					eclipseExportedContent);
 		} catch (CoreException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -79,6 +298,31 @@ public abstract class ProjectExporter extends Exporter {
 		return eclipseExportedContent;
 	}
 
+	/**
+	 * Stage the exported content in the {@link ExportSnapshot} of the
+	 * composer related to the target. Without resource delta, the content is
+	 * the whole component : only the changes since the recorded export are
+	 * returned.
+	 */
+	private IExportedContent record(IProject componentProject, IResourceDelta componentUpdate,
+			IExporterTarget target, String exporterType, boolean fullExport, IExportedContent content) {
+		if (!(content instanceof FolderExportedContent)) {
+			return content;
+		}
+		ExportSnapshot snapshot = ExportSnapshot.get(target, getItem(), exporterType);
+		if (snapshot == null) {
+			return content;
+		}
+		if (!fullExport && (componentUpdate == null)) {
+			FolderExportedContent changes = snapshot.diff(componentProject, (FolderExportedContent) content);
+			if (changes != null) {
+				return changes;
+			}
+		}
+		snapshot.update((FolderExportedContent) content, componentUpdate == null);
+		return content;
+	}
+
 	// private List<IFile> findFiles(IProject componentProject) throws CoreException
 	// {
 	// List<IFile> files = new ArrayList<IFile>();
@@ -112,4 +356,76 @@ public abstract class ProjectExporter extends Exporter {
 	protected abstract IExportedContent exportItem(IProject componentProject, IResourceDelta componentUpdate,
 			IProgressMonitor monitor, String exporterType, IExporterTarget target, boolean fullExport)
 			throws CoreException;
+
+	/**
+	 * Export the files and folders of the item into the specified sink. This
+	 * implementation builds the complete tree and gives its contents to the
+	 * sink ; the exporters override it to give the contents while they scan
+	 * the component project.
+	 * 
+	 * @param componentProject
+	 *            the project which contain the component content.
+	 * @param componentUpdate
+	 *            resource delta of componentProject since the last build
+	 * @param monitor
+	 *            the monitor of this build process
+	 * @param exporterType
+	 *            the exporter type of files and directory to export
+	 * @param fullExport
+	 *            true for a full export
+	 * @param sink
+	 *            the sink which receives the exported files and folders
+	 * @throws CoreException
+	 *             In case of error which cancel the build process
+	 */
+	protected void exportItem(IProject componentProject, IResourceDelta componentUpdate, IProgressMonitor monitor,
+			String exporterType, boolean fullExport, IExportSink sink) throws CoreException {
+		IExportedContent content = exportItem(componentProject, componentUpdate, monitor, exporterType, null,
+				fullExport);
+		if (content instanceof FolderExportedContent) {
+			replay((FolderExportedContent) content, sink);
+		}
+	}
+
+	/**
+	 * Give the members of the specified tree to the sink, each folder before
+	 * its members. The target folders are the ones used by the composers
+	 * with the whole tree : the target folder of each member of a tree made
+	 * of target folders (see {@link FolderExportedContent#add(String)}), the
+	 * target folder of the tree otherwise.
+	 * 
+	 * @param folder
+	 *            a tree of exported contents
+	 * @param sink
+	 *            the sink which receives the exported files and folders
+	 * @throws CoreException
+	 *             if a content cannot be consumed
+	 */
+	protected static void replay(FolderExportedContent folder, IExportSink sink) throws CoreException {
+		if (folder.isTargetFolder()) {
+			List<IExportedContent> members = folder.getMembers();
+			for (int i = 0; i < members.size(); i++) {
+				FolderExportedContent targetFolder = (FolderExportedContent) members.get(i);
+				replay(targetFolder, sink, targetFolder.getTargetFolder());
+			}
+		} else {
+			replay(folder, sink, folder.getTargetFolder());
+		}
+	}
+
+	private static void replay(FolderExportedContent folder, IExportSink sink, String targetFolder)
+			throws CoreException {
+		List<IExportedContent> members = folder.getMembers();
+		for (int i = 0; i < members.size(); i++) {
+			IExportedContent content = members.get(i);
+			if (content instanceof FolderExportedContent) {
+				FolderExportedContent child = (FolderExportedContent) content;
+				sink.export(new FolderExportedContent(child.getItem(), child.getExporterType(), child.getPath(),
+						child.isAdded(), child.isUpdated(), child.isRemoved()), targetFolder);
+				replay(child, sink, targetFolder);
+			} else if (content instanceof FileExportedContent) {
+				sink.export((FileExportedContent) content, targetFolder);
+			}
+		}
+	}
 }